@@ -0,0 +1,73 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ligoj.app.api.NodeVo;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.resource.ContainerWithScopeVo;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRow;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.app.resource.project.ProjectLightVo;
+
+/**
+ * Synthetic dataset shared by the benchmarks: pages of messages covering all target types, with a few distinct targets
+ * and authors, as returned by the inbox queries.
+ */
+final class BenchmarkData {
+
+	private static final MessageTargetType[] TYPES = MessageTargetType.values();
+
+	private BenchmarkData() {
+		// Factory
+	}
+
+	/**
+	 * Return a page of messages, the newest first.
+	 *
+	 * @param size The page size.
+	 * @return The messages.
+	 */
+	static List<MessageRow> messages(final int size) {
+		final var messages = new ArrayList<MessageRow>(size);
+		for (var i = 0; i < size; i++) {
+			messages.add(new MessageRow(size - i, "Scheduled maintenance of the service " + i + ", see <a href='page.html'>the details</a>",
+					TYPES[i % TYPES.length], "target-" + i % 10, "user-" + i % 5, null, null, null));
+		}
+		return messages;
+	}
+
+	/**
+	 * Return the resolved targets of the given messages.
+	 *
+	 * @param messages The messages to resolve.
+	 * @return The resolved targets.
+	 */
+	static MessageTargets targets(final List<MessageRow> messages) {
+		return new MessageTargets(MessageTargets.resolve(messages, MessageTargetType.PROJECT, k -> {
+			final var project = new ProjectLightVo();
+			project.setName(k);
+			return project;
+		}), MessageTargets.resolve(messages, MessageTargetType.COMPANY, BenchmarkData::container),
+				MessageTargets.resolve(messages, MessageTargetType.GROUP, BenchmarkData::container),
+				MessageTargets.resolve(messages, MessageTargetType.NODE, k -> {
+					final var node = new NodeVo();
+					node.setId(k);
+					return node;
+				}), MessageTargets.resolveUsers(messages, k -> {
+					final var user = new UserOrg();
+					user.setId(k);
+					return user;
+				}));
+	}
+
+	private static ContainerWithScopeVo container(final String id) {
+		final var container = new ContainerWithScopeVo();
+		container.setId(id);
+		container.setName(id);
+		return container;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mapping of a page of messages to the returned details, as done by <code>findAllProvider</code>: the projected
+ * columns copy and the target dispatch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageMappingBenchmark {
+
+	@Param({ "20", "100" })
+	private int size;
+
+	private List<MessageRow> messages;
+
+	private MessageTargets targets;
+
+	private List<MessageVo> vos;
+
+	@Setup
+	public void setup() {
+		messages = BenchmarkData.messages(size);
+		targets = BenchmarkData.targets(messages);
+	}
+
+	/**
+	 * Reset the details filled and flagged by the previous iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+		vos = messages.stream().map(m -> MessageResource.toVo(m, targets)).toList();
+	}
+
+	@Benchmark
+	public List<MessageVo> toVo() {
+		return messages.stream().map(m -> MessageResource.toVo(m, targets)).toList();
+	}
+
+	@Benchmark
+	public List<MessageVo> fill() {
+		vos.forEach(targets::fill);
+		return vos;
+	}
+
+	@Benchmark
+	public int markUnread() {
+		return MessageResource.markUnread(vos, size / 2);
+	}
+}
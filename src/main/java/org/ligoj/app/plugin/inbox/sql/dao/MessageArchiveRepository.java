@@ -0,0 +1,47 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import java.util.Collection;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageArchive;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link MessageArchive} repository
+ */
+public interface MessageArchiveRepository extends RestRepository<MessageArchive, Integer> {
+
+	/**
+	 * Copy the given messages to the archive, with their identifier and their audit data.
+	 *
+	 * @param ids The message identifiers.
+	 * @return The amount of archived messages.
+	 */
+	@Modifying
+	@Query("""
+			INSERT INTO MessageArchive (id, targetType, target, value, validFrom, validUntil, createdBy, createdDate, lastModifiedBy, lastModifiedDate)
+			 SELECT m.id, m.targetType, m.target, m.value, m.validFrom, m.validUntil, m.createdBy, m.createdDate, m.lastModifiedBy, m.lastModifiedDate
+			 FROM Message m WHERE m.id IN :ids
+			""")
+	int archive(Collection<Integer> ids);
+
+	/**
+	 * Return all archived messages where the given user is involved and by criteria.
+	 *
+	 * @param user       The user requesting the messages.
+	 * @param membership The memberships of this user.
+	 * @param criteria   Optional text to filter the messages.
+	 * @param page       The ordering and page data.
+	 * @return The related archived messages
+	 * @see MessageRepository#findMy(String, MessageMembership, String, Pageable)
+	 */
+	@Query(value = MessageRow.SELECT + " FROM MessageArchive m WHERE" + MessageRepository.MY_AUDIENCE + MessageRepository.SEARCH,
+			countQuery = MessageRow.COUNT + " FROM MessageArchive m WHERE" + MessageRepository.MY_AUDIENCE + MessageRepository.SEARCH)
+	Page<MessageRow> findMy(String user, MessageMembership membership, String criteria, Pageable page);
+}
@@ -0,0 +1,16 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+
+/**
+ * Newest message of a target to archive with its older messages. Built by a constructor expression.
+ *
+ * @param targetType The target type.
+ * @param target     The target : user, group, node, ...
+ * @param id         The inclusive upper bound of the identifiers to archive.
+ */
+public record MessageCut(MessageTargetType targetType, String target, Integer id) {
+}
@@ -0,0 +1,19 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import java.util.Collection;
+
+/**
+ * Memberships of a user, bound to the {@link MessageRepository#MY_MESSAGES} predicate in place of the membership
+ * functions evaluated for each message.
+ *
+ * @param groups    The identifiers of the groups this user belongs to.
+ * @param companies The identifiers of the companies this user belongs to.
+ * @param projects  The keys of the projects this user is member of.
+ * @param nodes     The identifiers of the nodes subscribed by these projects, and their ancestors.
+ */
+public record MessageMembership(Collection<String> groups, Collection<String> companies, Collection<String> projects,
+		Collection<String> nodes) {
+}
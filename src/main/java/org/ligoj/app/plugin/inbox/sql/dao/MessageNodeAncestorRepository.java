@@ -0,0 +1,53 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageNodeAncestor;
+import org.ligoj.app.plugin.inbox.sql.model.MessageNodeAncestorId;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link MessageNodeAncestor} repository
+ */
+public interface MessageNodeAncestorRepository extends RestRepository<MessageNodeAncestor, MessageNodeAncestorId> {
+
+	/**
+	 * Base query inserting the ancestors of the nodes "n" not yet in the closure table.
+	 */
+	String INSERT_ANCESTORS = """
+			INSERT INTO MessageNodeAncestor (node, ancestor) SELECT n.id, a.id FROM Node n, Node a
+			 WHERE (a.id = n.id OR n.id LIKE CONCAT(a.id, ':%'))
+			   AND NOT EXISTS(SELECT 1 FROM MessageNodeAncestor c WHERE c.node = n.id)
+			""";
+
+	/**
+	 * Insert the ancestors of all nodes not yet in the closure table.
+	 *
+	 * @return The amount of inserted rows.
+	 */
+	@Modifying
+	@Query(INSERT_ANCESTORS)
+	int insertMissing();
+
+	/**
+	 * Insert the ancestors of a node and of its children not yet in the closure table.
+	 *
+	 * @param node The node identifier.
+	 * @return The amount of inserted rows.
+	 */
+	@Modifying
+	@Query(INSERT_ANCESTORS + " AND (n.id = :node OR n.id LIKE CONCAT(:node, ':%'))")
+	int insertMissing(String node);
+
+	/**
+	 * Delete the rows of the deleted nodes.
+	 *
+	 * @return The amount of deleted rows.
+	 */
+	@Modifying
+	@Query("DELETE FROM MessageNodeAncestor c WHERE NOT EXISTS(SELECT 1 FROM Node n WHERE n.id = c.node)")
+	int deleteObsolete();
+}
@@ -5,11 +5,43 @@ package org.ligoj.app.plugin.inbox.sql.dao;
 
 import org.ligoj.app.plugin.inbox.sql.model.MessageRead;
 import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 /**
  * {@link MessageRead} repository
  */
 public interface MessageReadRepository extends RestRepository<MessageRead, String> {
 
-	// All delegated
+	/**
+	 * Return the identifier of the last read message by the given user.
+	 *
+	 * @param user The user login.
+	 * @return The identifier of the last read message. <code>null</code> when this user has never read the messages.
+	 */
+	@Query("SELECT mr.message FROM MessageRead mr WHERE mr.id = :user")
+	Integer findCursor(String user);
+
+	/**
+	 * Move forward the cursor of the given user to the given message. The cursor is never moved backward.
+	 *
+	 * @param user    The user login.
+	 * @param message The identifier of the last read message.
+	 * @return The amount of updated cursors. <code>0</code> when the cursor is already beyond the given message, or
+	 *         when this user has never read the messages.
+	 */
+	@Modifying(flushAutomatically = true)
+	@Query("UPDATE MessageRead mr SET mr.message = :message WHERE mr.id = :user AND mr.message < :message")
+	int advance(String user, int message);
+
+	/**
+	 * Create the cursor of the given user. Fails on the primary key when this cursor already exists.
+	 *
+	 * @param user    The user login.
+	 * @param message The identifier of the last read message.
+	 * @return The amount of created cursors.
+	 */
+	@Modifying(flushAutomatically = true)
+	@Query("INSERT INTO MessageRead (id, message) VALUES (:user, :message)")
+	int create(String user, int message);
 }
@@ -0,0 +1,123 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageRecipient;
+import org.ligoj.app.plugin.inbox.sql.model.MessageRecipientId;
+import org.ligoj.bootstrap.core.dao.RestRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * {@link MessageRecipient} repository
+ */
+public interface MessageRecipientRepository extends RestRepository<MessageRecipient, MessageRecipientId> {
+
+	/**
+	 * Base query materializing the recipients of the messages "m".
+	 */
+	String INSERT_RECIPIENTS = "INSERT INTO MessageRecipient (message, login) SELECT m.id, u.id FROM Message m, CacheUser u WHERE ("
+			+ MessageRepository.RECIPIENTS + ")";
+
+	/**
+	 * Filter of {@link #INSERT_RECIPIENTS} excluding the recipients already materialized.
+	 */
+	String MISSING = " AND NOT EXISTS(SELECT 1 FROM MessageRecipient r WHERE r.message = m.id AND r.login = u.id)";
+
+	/**
+	 * Base query deleting the materialized recipients "r" no longer matching their message.
+	 */
+	String DELETE_OBSOLETE = "DELETE FROM MessageRecipient r WHERE NOT EXISTS(SELECT 1 FROM Message m, CacheUser u WHERE m.id = r.message AND u.id = r.login AND ("
+			+ MessageRepository.RECIPIENTS + "))";
+
+	/**
+	 * Materialize the recipients of the given message.
+	 *
+	 * @param message The message identifier.
+	 * @return The amount of recipients.
+	 */
+	@Modifying
+	@Query(INSERT_RECIPIENTS + " AND m.id = :message")
+	int insertByMessage(int message);
+
+	/**
+	 * Materialize the recipients of the given messages.
+	 *
+	 * @param messages The message identifiers.
+	 * @return The amount of recipients.
+	 */
+	@Modifying
+	@Query(INSERT_RECIPIENTS + " AND m.id IN :messages")
+	int insertByMessages(Collection<Integer> messages);
+
+	/**
+	 * Materialize the missing recipients of all messages.
+	 *
+	 * @return The amount of inserted recipients.
+	 */
+	@Modifying
+	@Query(INSERT_RECIPIENTS + MISSING)
+	int insertMissing();
+
+	/**
+	 * Materialize the missing recipients among the given users.
+	 *
+	 * @param users The user logins.
+	 * @return The amount of inserted recipients.
+	 */
+	@Modifying
+	@Query(INSERT_RECIPIENTS + MISSING + " AND u.id IN :users")
+	int insertMissing(Collection<String> users);
+
+	/**
+	 * Delete the recipients no longer matching their message.
+	 *
+	 * @return The amount of deleted recipients.
+	 */
+	@Modifying
+	@Query(DELETE_OBSOLETE)
+	int deleteObsolete();
+
+	/**
+	 * Delete the recipients among the given users no longer matching their message.
+	 *
+	 * @param users The user logins.
+	 * @return The amount of deleted recipients.
+	 */
+	@Modifying
+	@Query(DELETE_OBSOLETE + " AND r.login IN :users")
+	int deleteObsolete(Collection<String> users);
+
+	/**
+	 * Return the recipients of the given message.
+	 *
+	 * @param message The message identifier.
+	 * @return The recipient logins.
+	 */
+	@Query("SELECT r.login FROM MessageRecipient r WHERE r.message = :message")
+	List<String> findLogins(int message);
+
+	/**
+	 * Delete the recipients of the given message.
+	 *
+	 * @param message The message identifier.
+	 * @return The amount of deleted recipients.
+	 */
+	@Modifying
+	@Query("DELETE FROM MessageRecipient WHERE message = :message")
+	int deleteByMessage(int message);
+
+	/**
+	 * Delete the recipients of the given messages.
+	 *
+	 * @param messages The message identifiers.
+	 * @return The amount of deleted recipients.
+	 */
+	@Modifying
+	@Query("DELETE FROM MessageRecipient WHERE message IN :messages")
+	int deleteByMessages(Collection<Integer> messages);
+}
@@ -3,12 +3,18 @@
  */
 package org.ligoj.app.plugin.inbox.sql.dao;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 import org.ligoj.app.dao.ProjectRepository;
 import org.ligoj.app.iam.dao.DelegateOrgRepository;
 import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
 import org.ligoj.bootstrap.core.dao.RestRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
@@ -18,18 +24,32 @@ import org.springframework.data.jpa.repository.Query;
 public interface MessageRepository extends RestRepository<Message, Integer> {
 
 	/**
-	 * Base query to find related messages of a user.
+	 * Predicate matching the messages of a user, from the memberships of this user bound to the parameter
+	 * "membership". Same rules than {@link #RECIPIENTS}.
+	 *
+	 * @see MessageMembership
 	 */
-	String MY_MESSAGES = """
-			 FROM Message m WHERE (targetType IS NULL
+	String MY_AUDIENCE = """
+			 (targetType IS NULL
 			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.USER    AND target = :user)
-			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.GROUP   AND inGroup(:user,m.target))
-			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.COMPANY AND inCompany(:user,m.target))
-			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.PROJECT AND inProjectKey(:user,m.target))
-			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.NODE    AND EXISTS(SELECT 1 FROM Subscription s INNER JOIN s.project p INNER JOIN s.node n000 WHERE
-			     (n000.id = m.target OR n000.id LIKE CONCAT(m.target, ':%')) AND inProject(:user,p))))
+			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.GROUP   AND target IN :#{#membership.groups()})
+			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.COMPANY AND target IN :#{#membership.companies()})
+			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.PROJECT AND target IN :#{#membership.projects()})
+			  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.NODE    AND target IN :#{#membership.nodes()}))
 			""";
 
+	/**
+	 * Filter of the messages "m" in their validity.
+	 */
+	String ACTIVE = " AND (m.validFrom IS NULL OR m.validFrom <= CURRENT_TIMESTAMP) AND (m.validUntil IS NULL OR m.validUntil > CURRENT_TIMESTAMP)";
+
+	/**
+	 * Base query to find related and active messages of a user.
+	 *
+	 * @see #MY_AUDIENCE
+	 */
+	String MY_MESSAGES = " FROM Message m WHERE" + MY_AUDIENCE + ACTIVE;
+
 	/**
 	 * Base query to find messages a user can see, even if there are not targeting him/her. User can also see his/her
 	 * messages sent directly to another user.
@@ -44,10 +64,51 @@ public interface MessageRepository extends RestRepository<Message, Integer> {
 			+ "           AND c.description LIKE CONCAT('%,', d.dn) AND " + DelegateOrgRepository.ASSIGNED_DELEGATE_D + ")))"
 			+ "  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.PROJECT AND EXISTS(SELECT 1 FROM Project p LEFT JOIN p.cacheGroups AS cpg LEFT JOIN cpg.group AS cg   WHERE p.pkey = m.target AND "
 			+ ProjectRepository.VISIBLE_PROJECTS + "))"
-			+ "  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.NODE AND EXISTS(SELECT 1    FROM Node n WHERE n.id = m.target"
-			+ "       AND EXISTS(SELECT 1 FROM DelegateNode d WHERE " + DelegateOrgRepository.ASSIGNED_DELEGATE_D
-			+ " AND (n.id LIKE CONCAT(d.name, ':%') OR n.id = d.name)))))";
+			+ "  OR (targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.NODE AND EXISTS(SELECT 1    FROM Node n, MessageNodeAncestor a WHERE n.id = m.target"
+			+ "       AND a.node = n.id AND EXISTS(SELECT 1 FROM DelegateNode d WHERE " + DelegateOrgRepository.ASSIGNED_DELEGATE_D
+			+ " AND d.name = a.ancestor))))";
+
+
+	/**
+	 * Predicate matching a user "u" belonging to the audience of a message "m", evaluated for any user. The node
+	 * hierarchy is matched with the closure table.
+	 *
+	 * @see org.ligoj.app.plugin.inbox.sql.model.MessageNodeAncestor
+	 */
+	String RECIPIENTS = """
+			    m.targetType IS NULL
+			 OR (m.targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.USER    AND m.target = u.id)
+			 OR (m.targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.GROUP   AND inGroup(u.id,m.target))
+			 OR (m.targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.COMPANY AND inCompany(u.id,m.target))
+			 OR (m.targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.PROJECT AND inProjectKey(u.id,m.target))
+			 OR (m.targetType = org.ligoj.app.plugin.inbox.sql.model.MessageTargetType.NODE    AND EXISTS(SELECT 1 FROM Subscription s INNER JOIN s.project p
+			    INNER JOIN MessageNodeAncestor a ON a.node = s.node.id WHERE a.ancestor = m.target AND inProject(u.id,p)))
+			""";
+
+	/**
+	 * Base query to find related and active messages of a user from the materialized recipients. Equivalent to
+	 * {@link #MY_MESSAGES} as long as the recipients are synchronized.
+	 */
+	String MY_RECIPIENT_MESSAGES = " FROM Message m WHERE EXISTS(SELECT 1 FROM MessageRecipient r WHERE r.login = :user AND r.message = m.id)"
+			+ ACTIVE;
+
+	/**
+	 * Criteria filter applied on the messages "m".
+	 */
+	String SEARCH = """
+			 AND (cast(targetType as String) LIKE(CONCAT(CONCAT('%',:criteria),'%'))
+			  OR target LIKE(CONCAT(CONCAT('%',:criteria),'%')) OR value LIKE(CONCAT(CONCAT('%',:criteria),'%')))
+			""";
+
+	/**
+	 * Filter of the messages "m" among the candidates of the search backend.
+	 */
+	String CANDIDATES = " AND m.id IN :ids";
 
+	/**
+	 * Keyset filter of the messages "m" older than a given message.
+	 */
+	String BEFORE = " AND m.id < :before";
 
 	/**
 	 * Base query to find related project to a user "u.id".
@@ -55,64 +116,446 @@ public interface MessageRepository extends RestRepository<Message, Integer> {
 	String HIS_PROJECTS = " inProject(u.id,p)";
 
 	/**
-	 * Return all messages where the given user is involved and by criteria.
+	 * Return all messages where the given user is involved and by criteria. Without identifier range, this offset
+	 * mode is not supported by an index: prefer the keyset mode for the large tables.
+	 *
+	 * @param user       The user requesting the messages.
+	 * @param membership The memberships of this user.
+	 * @param criteria   Optional text to filter the messages.
+	 * @param page       The ordering and page data.
+	 * @return The related messages
+	 */
+	@Query(value = MessageRow.SELECT + MY_MESSAGES + SEARCH, countQuery = MessageRow.COUNT + MY_MESSAGES + SEARCH)
+	Page<MessageRow> findMy(String user, MessageMembership membership, String criteria, Pageable page);
+
+	/**
+	 * Return all messages where the given user is involved, among the given candidates and by criteria.
+	 *
+	 * @param user       The user requesting the messages.
+	 * @param membership The memberships of this user.
+	 * @param criteria   Optional text to filter the messages.
+	 * @param ids        The candidate identifiers from the search backend.
+	 * @param page       The ordering and page data.
+	 * @return The related messages
+	 * @see #findMy(String, MessageMembership, String, Pageable)
+	 */
+	@Query(value = MessageRow.SELECT + MY_MESSAGES + CANDIDATES + SEARCH, countQuery = MessageRow.COUNT + MY_MESSAGES + CANDIDATES + SEARCH)
+	Page<MessageRow> findMyIn(String user, MessageMembership membership, String criteria, Collection<Integer> ids, Pageable page);
+
+	/**
+	 * Return all messages where the given user is a materialized recipient and by criteria.
+	 *
+	 * @param user     The user requesting the messages.
+	 * @param criteria Optional text to filter the messages.
+	 * @param page     The ordering and page data.
+	 * @return The related messages
+	 * @see #findMy(String, MessageMembership, String, Pageable)
+	 */
+	@Query(value = MessageRow.SELECT + MY_RECIPIENT_MESSAGES + SEARCH, countQuery = MessageRow.COUNT + MY_RECIPIENT_MESSAGES + SEARCH)
+	Page<MessageRow> findMyRecipient(String user, String criteria, Pageable page);
+
+	/**
+	 * Return all messages where the given user is a materialized recipient, among the given candidates and by
+	 * criteria.
 	 *
 	 * @param user     The user requesting the messages.
 	 * @param criteria Optional text to filter the messages.
+	 * @param ids      The candidate identifiers from the search backend.
 	 * @param page     The ordering and page data.
 	 * @return The related messages
+	 * @see #findMyRecipient(String, String, Pageable)
+	 */
+	@Query(value = MessageRow.SELECT + MY_RECIPIENT_MESSAGES + CANDIDATES + SEARCH, countQuery = MessageRow.COUNT + MY_RECIPIENT_MESSAGES + CANDIDATES + SEARCH)
+	Page<MessageRow> findMyRecipientIn(String user, String criteria, Collection<Integer> ids, Pageable page);
+
+	/**
+	 * Return the messages where the given user is involved, older than a given message and by criteria. There is no
+	 * total count.
+	 *
+	 * @param user       The user requesting the messages.
+	 * @param membership The memberships of this user.
+	 * @param criteria   Optional text to filter the messages.
+	 * @param before     The exclusive upper bound of the returned message identifiers.
+	 * @param page       The ordering and size data.
+	 * @return The related messages
+	 * @see #findMy(String, MessageMembership, String, Pageable)
+	 */
+	@Query(MessageRow.SELECT + MY_MESSAGES + SEARCH + BEFORE)
+	Slice<MessageRow> findMyBefore(String user, MessageMembership membership, String criteria, int before, Pageable page);
+
+	/**
+	 * Return the messages where the given user is involved, among the given candidates, older than a given message and
+	 * by criteria. There is no total count.
+	 *
+	 * @param user       The user requesting the messages.
+	 * @param membership The memberships of this user.
+	 * @param criteria   Optional text to filter the messages.
+	 * @param ids        The candidate identifiers from the search backend.
+	 * @param before     The exclusive upper bound of the returned message identifiers.
+	 * @param page       The ordering and size data.
+	 * @return The related messages
+	 * @see #findMyBefore(String, MessageMembership, String, int, Pageable)
+	 */
+	@Query(MessageRow.SELECT + MY_MESSAGES + CANDIDATES + SEARCH + BEFORE)
+	Slice<MessageRow> findMyBeforeIn(String user, MessageMembership membership, String criteria, Collection<Integer> ids, int before, Pageable page);
+
+	/**
+	 * Return the messages where the given user is a materialized recipient, older than a given message and by
+	 * criteria. There is no total count.
+	 *
+	 * @param user     The user requesting the messages.
+	 * @param criteria Optional text to filter the messages.
+	 * @param before   The exclusive upper bound of the returned message identifiers.
+	 * @param page     The ordering and size data.
+	 * @return The related messages
+	 * @see #findMyRecipient(String, String, Pageable)
+	 */
+	@Query(MessageRow.SELECT + MY_RECIPIENT_MESSAGES + SEARCH + BEFORE)
+	Slice<MessageRow> findMyRecipientBefore(String user, String criteria, int before, Pageable page);
+
+	/**
+	 * Return the messages where the given user is a materialized recipient, among the given candidates, older than a
+	 * given message and by criteria. There is no total count.
+	 *
+	 * @param user     The user requesting the messages.
+	 * @param criteria Optional text to filter the messages.
+	 * @param ids      The candidate identifiers from the search backend.
+	 * @param before   The exclusive upper bound of the returned message identifiers.
+	 * @param page     The ordering and size data.
+	 * @return The related messages
+	 * @see #findMyRecipientBefore(String, String, int, Pageable)
 	 */
-	@Query(MY_MESSAGES + " AND (cast(targetType as String) LIKE(CONCAT(CONCAT('%',:criteria),'%'))"
-			+ "                 OR target LIKE(CONCAT(CONCAT('%',:criteria),'%')) OR value LIKE(CONCAT(CONCAT('%',:criteria),'%')))")
-	Page<Message> findMy(String user, String criteria, Pageable page);
+	@Query(MessageRow.SELECT + MY_RECIPIENT_MESSAGES + CANDIDATES + SEARCH + BEFORE)
+	Slice<MessageRow> findMyRecipientBeforeIn(String user, String criteria, Collection<Integer> ids, int before, Pageable page);
 
 	/**
 	 * Return all messages the given user could have written, and by criteria. The main difference with the function
-	 * {@link #findMy(String, String, Pageable)} is the messages returned includes the one the given user is not
+	 * {@link #findMy(String, MessageMembership, String, Pageable)} is the messages returned includes the one the given user is not
 	 * involved, or targeted.
 	 * For sample, with this function, a user can see all messages from a group because this group is visible by this
 	 * user.
-	 * But with the other function {@link #findMy(String, String, Pageable)} these messages will be returned
+	 * But with the other function {@link #findMy(String, MessageMembership, String, Pageable)} these messages will be returned
 	 * because this user is not member of this group.
+	 * Without identifier range, this offset mode is not supported by an index: prefer the keyset mode for the large
+	 * tables.
 	 *
 	 * @param user     The user requesting the messages.
 	 * @param criteria Optional text to filter the messages.
 	 * @param page     The ordering and page data.
 	 * @return The related messages
 	 */
-	@Query(VISIBLE_MESSAGES + """
-				AND (cast(targetType as String) LIKE(CONCAT(CONCAT('%',:criteria),'%'))
-				  OR target LIKE(CONCAT(CONCAT('%',:criteria),'%')) OR value LIKE(CONCAT(CONCAT('%',:criteria),'%')))
-			""")
-	Page<Message> findAll(String user, String criteria, Pageable page);
+	@Query(value = MessageRow.SELECT + " " + VISIBLE_MESSAGES + SEARCH, countQuery = MessageRow.COUNT + " " + VISIBLE_MESSAGES + SEARCH)
+	Page<MessageRow> findAll(String user, String criteria, Pageable page);
+
+	/**
+	 * Return all messages the given user could have written, among the given candidates and by criteria.
+	 *
+	 * @param user     The user requesting the messages.
+	 * @param criteria Optional text to filter the messages.
+	 * @param ids      The candidate identifiers from the search backend.
+	 * @param page     The ordering and page data.
+	 * @return The related messages
+	 * @see #findAll(String, String, Pageable)
+	 */
+	@Query(value = MessageRow.SELECT + " " + VISIBLE_MESSAGES + CANDIDATES + SEARCH, countQuery = MessageRow.COUNT + " " + VISIBLE_MESSAGES + CANDIDATES + SEARCH)
+	Page<MessageRow> findAllIn(String user, String criteria, Collection<Integer> ids, Pageable page);
+
+	/**
+	 * Return the messages the given user could have written, older than a given message and by criteria. There is no
+	 * total count.
+	 *
+	 * @param user     The user requesting the messages.
+	 * @param criteria Optional text to filter the messages.
+	 * @param before   The exclusive upper bound of the returned message identifiers.
+	 * @param page     The ordering and size data.
+	 * @return The related messages
+	 * @see #findAll(String, String, Pageable)
+	 */
+	@Query(MessageRow.SELECT + " " + VISIBLE_MESSAGES + SEARCH + BEFORE)
+	Slice<MessageRow> findAllBefore(String user, String criteria, int before, Pageable page);
+
+	/**
+	 * Return the messages the given user could have written, among the given candidates, older than a given message and
+	 * by criteria. There is no total count.
+	 *
+	 * @param user     The user requesting the messages.
+	 * @param criteria Optional text to filter the messages.
+	 * @param ids      The candidate identifiers from the search backend.
+	 * @param before   The exclusive upper bound of the returned message identifiers.
+	 * @param page     The ordering and size data.
+	 * @return The related messages
+	 * @see #findAllBefore(String, String, int, Pageable)
+	 */
+	@Query(MessageRow.SELECT + " " + VISIBLE_MESSAGES + CANDIDATES + SEARCH + BEFORE)
+	Slice<MessageRow> findAllBeforeIn(String user, String criteria, Collection<Integer> ids, int before, Pageable page);
+
+	/**
+	 * Return the amount of messages where the given user is involved, newer than a given message.
+	 *
+	 * @param user       The user requesting the counter.
+	 * @param membership The memberships of this user.
+	 * @param since      The exclusive lower bound of the counted message identifiers.
+	 * @return The amount of messages newer than the given one.
+	 */
+	@Query("SELECT COUNT(m.id) " + MY_MESSAGES + " AND m.id > :since")
+	int countSince(String user, MessageMembership membership, int since);
 
 	/**
-	 * Return the amount of unread messages since the last time this user has read them.
+	 * Return the identifiers of the groups the given user belongs to.
 	 *
-	 * @param user The user requesting the counter.
-	 * @return the amount of unread messages since the last time this user has read them.
+	 * @param user The user login.
+	 * @return The group identifiers.
+	 * @see MessageMembership#groups()
 	 */
-	@Query("SELECT COUNT(m.id) " + MY_MESSAGES
-			+ " AND m.id > (SELECT (CASE mr.message WHEN NULL THEN 0 ELSE mr.message END) FROM MessageRead  mr WHERE mr.id = :user)")
-	int countUnread(String user);
+	@Query("SELECT g.id FROM CacheGroup g WHERE inGroup(:user,g.id)")
+	List<String> findGroups(String user);
 
 	/**
-	 * Return the amount of users targeted by the given configuration.
+	 * Return the identifiers of the companies the given user belongs to.
+	 *
+	 * @param user The user login.
+	 * @return The company identifiers.
+	 * @see MessageMembership#companies()
+	 */
+	@Query("SELECT c.id FROM CacheCompany c WHERE inCompany(:user,c.id)")
+	List<String> findCompanies(String user);
+
+	/**
+	 * Return the keys of the projects the given user is member of.
+	 *
+	 * @param user The user login.
+	 * @return The project keys.
+	 * @see MessageMembership#projects()
+	 */
+	@Query("SELECT p.pkey FROM Project p WHERE inProjectKey(:user,p.pkey)")
+	List<String> findProjects(String user);
+
+	/**
+	 * Return the identifiers of the nodes subscribed by the projects the given user is member of. The ancestors of
+	 * these nodes are not included.
+	 *
+	 * @param user The user login.
+	 * @return The subscribed node identifiers.
+	 * @see MessageMembership#nodes()
+	 */
+	@Query("SELECT DISTINCT n000.id FROM Subscription s INNER JOIN s.project p INNER JOIN s.node n000 WHERE inProject(:user,p)")
+	List<String> findSubscribedNodes(String user);
+
+	/**
+	 * Return the amount of messages where the given user is a materialized recipient, newer than a given message. The
+	 * range of the recipients of this user drives the count, the messages are read by their identifier.
+	 *
+	 * @param user  The user requesting the counter.
+	 * @param since The exclusive lower bound of the counted message identifiers.
+	 * @return The amount of messages newer than the given one.
+	 */
+	@Query("SELECT COUNT(m.id) FROM MessageRecipient r, Message m WHERE r.login = :user AND r.message > :since AND m.id = r.message" + ACTIVE)
+	int countRecipientSince(String user, int since);
+
+	/**
+	 * Predicate matching a group "g" equal to, or a sub-group of, a group "t": the distinguished name of a sub-group
+	 * ends with the one of its parent. Also used for the companies.
+	 */
+	String SUB_GROUP = " (g.id = t.id OR g.description LIKE CONCAT('%,', t.description))";
+
+	/**
+	 * Members of the groups "t" of the projects "p", including the members of their sub-groups.
+	 */
+	String PROJECT_MEMBERS = " INNER JOIN p.cacheGroups pg INNER JOIN pg.group t, CacheMembership cm INNER JOIN cm.group g WHERE"
+			+ SUB_GROUP;
+
+	/**
+	 * Return the amount of users targeted by the given configuration. Only the query specialized for the given type
+	 * is executed. The members are counted from the memberships, without evaluating each user.
 	 *
 	 * @param targetType The message type.
 	 * @param target     The target configuration : group, node, ...
 	 * @return The amount of users targeted by the given configuration.
 	 */
+	default int audience(final String targetType, final String target) {
+		return switch (targetType) {
+		case "USER" -> audienceUser(target);
+		case "GROUP" -> audienceGroup(target);
+		case "COMPANY" -> audienceCompany(target);
+		case "PROJECT" -> audienceProject(target);
+		case "NODE" -> audienceNode(target);
+		default -> 0;
+		};
+	}
+
+	/**
+	 * Return the amount of users targeted by a user, a lookup by primary key.
+	 *
+	 * @param target The user login.
+	 * @return <code>1</code> when the user exists, <code>0</code> otherwise.
+	 */
+	@Query("SELECT COUNT(u.id) FROM CacheUser u WHERE u.id = :target")
+	int audienceUser(String target);
+
+	/**
+	 * Return the amount of users member of a group.
+	 *
+	 * @param target The group identifier.
+	 * @return The amount of members.
+	 */
+	@Query("SELECT COUNT(DISTINCT cm.user.id) FROM CacheGroup t, CacheMembership cm INNER JOIN cm.group g WHERE t.id = :target AND"
+			+ SUB_GROUP)
+	int audienceGroup(String target);
+
+	/**
+	 * Return the amount of users member of a company or of one of its sub-companies.
+	 *
+	 * @param target The company identifier.
+	 * @return The amount of members.
+	 */
+	@Query("""
+			SELECT COUNT(u.id) FROM CacheCompany t, CacheUser u INNER JOIN u.company g WHERE t.id = :target AND
+			""" + SUB_GROUP)
+	int audienceCompany(String target);
+
+	/**
+	 * Return the amount of users member of a project, through the groups of this project, and its team leader.
+	 *
+	 * @param target The project key.
+	 * @return The amount of members.
+	 */
+	@Query("SELECT COUNT(l.login) FROM (SELECT cm.user.id AS login FROM Project p" + PROJECT_MEMBERS + """
+			 AND p.pkey = :target
+			 UNION SELECT p.teamLeader AS login FROM Project p WHERE p.pkey = :target AND p.teamLeader IS NOT NULL) l
+			""")
+	int audienceProject(String target);
+
+	/**
+	 * Return the amount of users member, or team leader, of a project subscribing to a node or one of its children.
+	 * The children are resolved with the closure table.
+	 *
+	 * @param target The node identifier.
+	 * @return The amount of members.
+	 */
 	@Query("""
-			SELECT COUNT(u.id) FROM CacheUser u WHERE
-			    (:targetType = 'USER'     AND :target = u.id)
-			 OR (:targetType = 'GROUP'    AND inGroup2(u.id,:target))
-			 OR (:targetType = 'COMPANY'  AND inCompany2(u.id,:target))
-			 OR (:targetType = 'PROJECT'  AND inProjectKey(u.id,:target))
-			 OR (:targetType = 'NODE'     AND EXISTS(SELECT 1 FROM Subscription s INNER JOIN s.project p INNER JOIN s.node n000 WHERE
-			"""
-			+ HIS_PROJECTS + " AND (n000.id = :target OR n000.id LIKE CONCAT(:target, ':%'))))")
-	int audience(String targetType, String target);
+			SELECT COUNT(l.login) FROM (SELECT cm.user.id AS login FROM MessageNodeAncestor a, Subscription s INNER JOIN s.project p
+			""" + PROJECT_MEMBERS + """
+			 AND s.node.id = a.node AND a.ancestor = :target
+			 UNION SELECT p.teamLeader AS login FROM MessageNodeAncestor a, Subscription s INNER JOIN s.project p
+			 WHERE s.node.id = a.node AND a.ancestor = :target AND p.teamLeader IS NOT NULL) l
+			""")
+	int audienceNode(String target);
+
+	/**
+	 * Return the identifiers of the oldest messages created before a given date.
+	 *
+	 * @param date The exclusive upper bound of the creation date.
+	 * @param page The amount of returned identifiers.
+	 * @return The message identifiers, the oldest first.
+	 */
+	@Query("SELECT m.id FROM Message m WHERE m.createdDate < :date ORDER BY m.id")
+	List<Integer> findIdsCreatedBefore(Date date, Pageable page);
+
+	/**
+	 * Return the newest message to archive of each target having more than a given amount of messages. The messages
+	 * are ranked once per target, the newest first.
+	 *
+	 * @param max The amount of messages kept per target.
+	 * @return The cut of each target to archive.
+	 */
+	@Query("""
+			SELECT new org.ligoj.app.plugin.inbox.sql.dao.MessageCut(r.targetType, r.target, r.id)
+			  FROM (SELECT m.targetType AS targetType, m.target AS target, m.id AS id,
+			    ROW_NUMBER() OVER (PARTITION BY m.targetType, m.target ORDER BY m.id DESC) AS rn FROM Message m) r
+			  WHERE r.rn = :max + 1
+			""")
+	List<MessageCut> findCuts(int max);
+
+	/**
+	 * Return the identifiers of the oldest messages of a target up to a given identifier.
+	 *
+	 * @param targetType The target type.
+	 * @param target     The target.
+	 * @param id         The inclusive upper bound of the identifiers.
+	 * @param page       The amount of returned identifiers.
+	 * @return The message identifiers, the oldest first.
+	 */
+	@Query("SELECT m.id FROM Message m WHERE m.targetType = :targetType AND m.target = :target AND m.id <= :id ORDER BY m.id")
+	List<Integer> findIdsUpTo(MessageTargetType targetType, String target, int id, Pageable page);
+
+	/**
+	 * Return the identifiers of the oldest messages expired at a given date.
+	 *
+	 * @param date The inclusive upper bound of the end of validity.
+	 * @param page The amount of returned identifiers.
+	 * @return The message identifiers, the oldest first.
+	 */
+	@Query("SELECT m.id FROM Message m WHERE m.validUntil <= :date ORDER BY m.id")
+	List<Integer> findIdsExpired(Date date, Pageable page);
+
+	/**
+	 * Return the identifiers of the scheduled messages whose validity has started.
+	 *
+	 * @param date The inclusive upper bound of the start of validity.
+	 * @return The message identifiers.
+	 */
+	@Query("SELECT m.id FROM Message m WHERE m.scheduled = TRUE AND m.validFrom <= :date")
+	List<Integer> findIdsActivated(Date date);
+
+	/**
+	 * Delete a scheduled message being activated. Only one of the concurrent activations deletes it.
+	 *
+	 * @param id The message identifier.
+	 * @return The amount of deleted messages: <code>0</code> when already activated.
+	 */
+	@Modifying
+	@Query("DELETE FROM Message WHERE id = :id AND scheduled = TRUE")
+	int deleteScheduled(int id);
+
+	/**
+	 * Return the amount of messages ending their validity within a period.
+	 *
+	 * @param from The exclusive lower bound of the period.
+	 * @param to   The inclusive upper bound of the period.
+	 * @return The amount of expired messages.
+	 */
+	@Query("SELECT COUNT(m.id) FROM Message m WHERE m.validUntil > :from AND m.validUntil <= :to")
+	int countExpired(Date from, Date to);
+
+	/**
+	 * Delete the given messages.
+	 *
+	 * @param ids The message identifiers.
+	 * @return The amount of deleted messages.
+	 */
+	@Modifying
+	@Query("DELETE FROM Message WHERE id IN :ids")
+	int deleteIn(Collection<Integer> ids);
+
+	/**
+	 * Return the identifier of the last written message.
+	 *
+	 * @return The identifier of the last written message. <code>0</code> when there is no message.
+	 */
+	@Query("SELECT COALESCE(MAX(m.id), 0) FROM Message m")
+	int findLastId();
+
+	/**
+	 * Return the searchable columns of the messages, without loading the entities.
+	 *
+	 * @param page The bound of the returned rows.
+	 * @return The rows of the messages. The slice has a next one when there are more messages than the bound.
+	 */
+	@Query(MessageRow.SELECT + " FROM Message m")
+	Slice<MessageRow> findAllRows(Pageable page);
+
+	/**
+	 * Indicate the given user is an administrator: one of his roles grants all API.
+	 *
+	 * @param user The user login.
+	 * @return <code>true</code> when the given user is an administrator.
+	 */
+	@Query("""
+			SELECT CASE WHEN COUNT(ra.id) > 0 THEN true ELSE false END FROM SystemRoleAssignment ra WHERE ra.user.login = :user
+			   AND EXISTS(SELECT 1 FROM SystemAuthorization a WHERE a.role = ra.role AND a.pattern = '.*'
+			   AND a.type = org.ligoj.bootstrap.model.system.SystemAuthorization$AuthorizationType.API)
+			""")
+	boolean isAdmin(String user);
 
 	/**
 	 * Delete the message matching to the given identifier if this message is visible to a specified user.
@@ -0,0 +1,36 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import java.util.Date;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+
+/**
+ * Listed columns of a live or archived message. Built by a constructor expression, this row is neither managed nor
+ * dirty checked.
+ *
+ * @param id          The message identifier.
+ * @param value       The message value.
+ * @param targetType  The target type. When <code>null</code> the target is everybody.
+ * @param target      The target : user, group, node, ...
+ * @param createdBy   The author.
+ * @param createdDate The creation date.
+ * @param validFrom   The optional start of the validity.
+ * @param validUntil  The optional end of the validity.
+ */
+public record MessageRow(Integer id, String value, MessageTargetType targetType, String target, String createdBy,
+		Date createdDate, Date validFrom, Date validUntil) {
+
+	/**
+	 * Projection of the message "m" to a {@link MessageRow}.
+	 */
+	public static final String SELECT = "SELECT new org.ligoj.app.plugin.inbox.sql.dao.MessageRow(m.id, m.value, m.targetType, m.target,"
+			+ " m.createdBy, m.createdDate, m.validFrom, m.validUntil)";
+
+	/**
+	 * Count of the messages "m", used by the paginated projections.
+	 */
+	public static final String COUNT = "SELECT COUNT(m.id)";
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.model;
+
+import java.util.Date;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.MappedSuperclass;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.Length;
+import org.ligoj.bootstrap.core.model.AbstractAudited;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Properties of a message, shared by the live and the archived messages.
+ */
+@Getter
+@Setter
+@MappedSuperclass
+public abstract class AbstractMessage extends AbstractAudited<Integer> {
+
+	/**
+	 * Type of target (group, user, ...). When <code>null</code> the target is everybody.
+	 * 
+	 * @see MessageTargetType
+	 */
+	@Enumerated(EnumType.STRING)
+	@NotNull
+	@Column(length = 10)
+	private MessageTargetType targetType;
+
+	/**
+	 * Optional related target : user, group, node, ...
+	 */
+	@NotNull
+	private String target;
+
+	/**
+	 * Value of the message.
+	 */
+	@Length(max = 500)
+	@NotNull
+	@NotBlank
+	private String value;
+
+	/**
+	 * Optional start of the validity. Before this date, the message is not delivered : a scheduled message.
+	 */
+	private Date validFrom;
+
+	/**
+	 * Optional end of the validity. After this date, the message is no more delivered, and is archived by the
+	 * retention job.
+	 */
+	private Date validUntil;
+}
@@ -3,50 +3,29 @@
  */
 package org.ligoj.app.plugin.inbox.sql.model;
 
-import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.EnumType;
-import jakarta.persistence.Enumerated;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
-import jakarta.validation.constraints.NotBlank;
-import jakarta.validation.constraints.NotNull;
-
-import org.hibernate.validator.constraints.Length;
-import org.ligoj.bootstrap.core.model.AbstractAudited;
 
 import lombok.Getter;
 import lombok.Setter;
 
 /**
- * A message to target audience.
+ * A message to target audience. The indexes match the inbox queries : the messages of a target for the audience
+ * resolution, the messages written by a user for the visibility, both ordered by identifier, the scheduled messages
+ * for the activation, and the end of the validity for the expiration.
  */
 @Getter
 @Setter
 @Entity
-@Table(name = "LIGOJ_MESSAGE")
-public class Message extends AbstractAudited<Integer> {
-
-	/**
-	 * Type of target (group, user, ...). When <code>null</code> the target is everybody.
-	 * 
-	 * @see MessageTargetType
-	 */
-	@Enumerated(EnumType.STRING)
-	@NotNull
-	@Column(length = 10)
-	private MessageTargetType targetType;
-
-	/**
-	 * Optional related target : user, group, node, ...
-	 */
-	@NotNull
-	private String target;
+@Table(name = "LIGOJ_MESSAGE", indexes = { @Index(name = "IX_MESSAGE_TARGET", columnList = "targetType,target,id"),
+		@Index(name = "IX_MESSAGE_CREATED_BY", columnList = "createdBy,id"), @Index(name = "IX_MESSAGE_SCHEDULED", columnList = "scheduled,validFrom"),
+		@Index(name = "IX_MESSAGE_VALID_UNTIL", columnList = "validUntil") })
+public class Message extends AbstractMessage {
 
 	/**
-	 * Value of the message.
+	 * When <code>true</code>, this message was written before the start of its validity and is not yet activated.
+	 * Computed on write.
 	 */
-	@Length(max = 500)
-	@NotNull
-	@NotBlank
-	private String value;
+	private Boolean scheduled;
 }
@@ -0,0 +1,17 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * An archived message, moved from the live messages by the retention job with its original identifier and audit
+ * data.
+ */
+@Entity
+@Table(name = "LIGOJ_MESSAGE_ARCHIVE", indexes = @Index(name = "IX_MESSAGE_ARCHIVE_TARGET", columnList = "targetType,target,id"))
+public class MessageArchive extends AbstractMessage {
+}
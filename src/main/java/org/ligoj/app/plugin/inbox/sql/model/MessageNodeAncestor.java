@@ -0,0 +1,37 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * An ancestor of a node, including the node itself : one row per node and per node it belongs to. Replaces the
+ * <code>LIKE</code> matching of the node hierarchy by an equality join.
+ */
+@Getter
+@Setter
+@Entity
+@IdClass(MessageNodeAncestorId.class)
+@Table(name = "LIGOJ_MESSAGE_NODE_ANCESTOR", indexes = @Index(name = "IX_MESSAGE_NODE_ANCESTOR", columnList = "ancestor,node"))
+public class MessageNodeAncestor {
+
+	/**
+	 * Identifier of the node. It's not a foreign key to allow node deletion without updating this table.
+	 */
+	@Id
+	private String node;
+
+	/**
+	 * Identifier of the ancestor, or the node itself.
+	 */
+	@Id
+	private String ancestor;
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A materialized recipient of a message : one row per message and per user belonging to the audience of this message
+ * when it was written, or when the memberships were last synchronized.
+ */
+@Getter
+@Setter
+@Entity
+@IdClass(MessageRecipientId.class)
+@Table(name = "LIGOJ_MESSAGE_RECIPIENT", indexes = @Index(name = "IX_MESSAGE_RECIPIENT_LOGIN", columnList = "login,message"))
+public class MessageRecipient {
+
+	/**
+	 * Identifier of the targeted message. It's not a foreign key to allow message deletion without updating this
+	 * table.
+	 */
+	@Id
+	private int message;
+
+	/**
+	 * Login of the recipient.
+	 */
+	@Id
+	private String login;
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory store of the audience counts, keyed by target. A count is kept for the configured duration or until the
+ * next synchronization, see {@link MessageResource#refresh(java.util.Collection)}: the committed changes of the
+ * memberships, the projects and the subscriptions are synchronized by {@link MessageMembershipListener} after its
+ * delay. Concurrent requests of the same target share a single computation. The least recently used counts are
+ * evicted beyond {@value #MAX_SIZE} entries.
+ */
+@Component
+public class MessageAudienceCache {
+
+	/**
+	 * Configuration key of the duration in seconds an audience count is kept. When <code>0</code>, only the concurrent
+	 * requests share the computation.
+	 */
+	public static final String CONF_TTL = MessageResource.KEY + ":audience-ttl";
+
+	/**
+	 * Default duration in seconds an audience count is kept.
+	 */
+	public static final int DEFAULT_TTL = 60;
+
+	/**
+	 * Maximal amount of cached counts.
+	 */
+	private static final int MAX_SIZE = 1000;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * Computed or being computed audience counts.
+	 */
+	private final MessageLruCache<CompletableFuture<Long>> audiences = new MessageLruCache<>(MAX_SIZE);
+
+	/**
+	 * Return the audience count of the given target.
+	 *
+	 * @param targetType The target type.
+	 * @param target     The normalized target.
+	 * @param loader     The function computing the count when not cached.
+	 * @return The amount of users targeted by the given target.
+	 */
+	public long get(final MessageTargetType targetType, final String target, final LongSupplier loader) {
+		final var key = targetType + ":" + target;
+		final var now = System.currentTimeMillis();
+		final var created = new CompletableFuture<Long>();
+		final CompletableFuture<Long> count;
+		synchronized (audiences) {
+			final var cached = audiences.getEntry(key);
+			if (cached != null && (cached.expire() > now || !cached.value().isDone())) {
+				// Valid, or being computed by another request
+				count = cached.value();
+			} else {
+				count = created;
+				audiences.put(key, count, now + configuration.get(CONF_TTL, DEFAULT_TTL) * 1000L);
+			}
+		}
+		if (count == created) {
+			try {
+				count.complete(loader.getAsLong());
+			} catch (final RuntimeException e) {
+				// Not cached, the waiting requests fail too
+				audiences.remove(key, count);
+				count.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try {
+			return count.join();
+		} catch (final CompletionException e) {
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * Evict all counts. Called by each synchronization of the memberships.
+	 */
+	public void evictAll() {
+		audiences.clear();
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Result of a message of a batch creation: either the identifier of the created message, either the validation errors.
+ */
+@Getter
+@Setter
+public class MessageBatchResult {
+
+	/**
+	 * Identifier of the created message. <code>null</code> when this message is not valid.
+	 */
+	private Integer id;
+
+	/**
+	 * Validation errors by property. <code>null</code> when this message is created.
+	 */
+	private Map<String, ?> errors;
+}
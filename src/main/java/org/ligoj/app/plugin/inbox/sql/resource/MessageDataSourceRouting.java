@@ -0,0 +1,106 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Route the read-only queries of the inbox to a read replica. Enabled only when a {@link DataSource} bean named
+ * {@value #REPLICA} is declared by the host: the main data source of the whole application is then wrapped by a
+ * routing data source. Only the read-only transactions started within {@link #replica(Supplier)} by the inbox
+ * listings and audiences use this replica, all other transactions of the application, read-only or not, keep using
+ * the main data source. The wrapping fetches the physical connections lazily, at the first statement of a
+ * transaction. The replica may lag : the cursors and the messages are always written to, and read from, the main data
+ * source.
+ */
+@Component
+@Slf4j
+public class MessageDataSourceRouting implements BeanPostProcessor, BeanFactoryAware {
+
+	/**
+	 * Name of the optional read replica data source bean.
+	 */
+	public static final String REPLICA = "inboxReplicaDataSource";
+
+	/**
+	 * Name of the routed data source bean.
+	 */
+	public static final String PRIMARY = "dataSource";
+
+	/**
+	 * When <code>true</code>, the read-only transactions of the current thread use the replica.
+	 */
+	private static final ThreadLocal<Boolean> INBOX = new ThreadLocal<>();
+
+	private BeanFactory beanFactory;
+
+	@Override
+	public void setBeanFactory(final BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+		if (bean instanceof DataSource primary && PRIMARY.equals(beanName) && beanFactory.containsBean(REPLICA)) {
+			log.info("Read-only inbox transactions are routed to the data source {}", REPLICA);
+			return route(primary, beanFactory.getBean(REPLICA, DataSource.class));
+		}
+		return bean;
+	}
+
+	/**
+	 * Run the given queries allowing the read-only transactions they start to use the replica.
+	 *
+	 * @param <T>     The result type.
+	 * @param queries The queries to run.
+	 * @return The result of the queries.
+	 */
+	public static <T> T replica(final Supplier<T> queries) {
+		final var previous = INBOX.get();
+		INBOX.set(Boolean.TRUE);
+		try {
+			return queries.get();
+		} finally {
+			if (previous == null) {
+				INBOX.remove();
+			} else {
+				INBOX.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * Return a data source routing the read-only transactions of the inbox to the replica. The physical connection is
+	 * fetched lazily, once the transaction is started and its read-only state is known.
+	 *
+	 * @param primary The main data source.
+	 * @param replica The read replica data source.
+	 * @return The routing data source.
+	 */
+	static DataSource route(final DataSource primary, final DataSource replica) {
+		final var routing = new AbstractRoutingDataSource() {
+			@Override
+			protected Object determineCurrentLookupKey() {
+				return Boolean.TRUE.equals(INBOX.get()) && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+			}
+		};
+		routing.setTargetDataSources(Map.of(Boolean.TRUE, replica, Boolean.FALSE, primary));
+		routing.setDefaultTargetDataSource(primary);
+		routing.afterPropertiesSet();
+		return new LazyConnectionDataSourceProxy(routing);
+	}
+}
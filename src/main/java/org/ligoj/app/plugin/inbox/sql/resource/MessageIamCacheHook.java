@@ -0,0 +1,48 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.ligoj.app.plugin.id.dao.IdCacheDao;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Follow the writes of the IAM cache made by {@link IdCacheDao}. The refresh of the whole IAM cache and the membership
+ * updates use bulk statements, firing no entity event to {@link MessageMembershipListener}: each completed call
+ * synchronizes all users once committed. The bean is advised in place when already proxied, otherwise wrapped.
+ */
+@Component
+public class MessageIamCacheHook implements BeanPostProcessor, MethodInterceptor {
+
+	@Autowired
+	private ObjectProvider<MessageMembershipListener> listener;
+
+	@Override
+	public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+		if (!(bean instanceof IdCacheDao)) {
+			return bean;
+		}
+		if (bean instanceof Advised advised && !advised.isFrozen()) {
+			advised.addAdvice(this);
+			return bean;
+		}
+		final var factory = new ProxyFactory(bean);
+		factory.setProxyTargetClass(true);
+		factory.addAdvice(this);
+		return factory.getProxy();
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+		final var result = invocation.proceed();
+		listener.getObject().changedAll();
+		return result;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded in-memory store of values keyed by a string, each entry having an expiration time. The least recently used
+ * entries are evicted beyond the maximal size. The operations are synchronized on this store, so a caller can
+ * synchronize on it to chain several operations atomically.
+ *
+ * @param <V> The value type.
+ */
+final class MessageLruCache<V> {
+
+	/**
+	 * A value and its expiration time.
+	 *
+	 * @param <V>    The value type.
+	 * @param value  The value.
+	 * @param expire The expiration time in milliseconds.
+	 */
+	record Entry<V>(V value, long expire) {
+	}
+
+	/**
+	 * Entries, in access order.
+	 */
+	private final Map<String, Entry<V>> entries;
+
+	/**
+	 * Create an empty store.
+	 *
+	 * @param maxSize The maximal amount of entries.
+	 */
+	MessageLruCache(final int maxSize) {
+		entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+			/**
+			 * SID
+			 */
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Entry<V>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Return the entry of the given key, expired or not.
+	 *
+	 * @param key The entry key.
+	 * @return The entry. <code>null</code> when not cached.
+	 */
+	synchronized Entry<V> getEntry(final String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Return the value of the given key when not expired.
+	 *
+	 * @param key The entry key.
+	 * @param now The current time in milliseconds.
+	 * @return The value. <code>null</code> when not cached or expired.
+	 */
+	synchronized V get(final String key, final long now) {
+		final var entry = entries.get(key);
+		return entry != null && entry.expire() > now ? entry.value() : null;
+	}
+
+	/**
+	 * Add or replace an entry.
+	 *
+	 * @param key    The entry key.
+	 * @param value  The value.
+	 * @param expire The expiration time in milliseconds.
+	 */
+	synchronized void put(final String key, final V value, final long expire) {
+		entries.put(key, new Entry<>(value, expire));
+	}
+
+	/**
+	 * Replace the value of a cached entry, keeping its expiration time.
+	 *
+	 * @param key      The entry key.
+	 * @param function The function computing the new value from the current one.
+	 */
+	synchronized void update(final String key, final UnaryOperator<V> function) {
+		entries.computeIfPresent(key, (k, e) -> new Entry<>(function.apply(e.value()), e.expire()));
+	}
+
+	/**
+	 * Remove an entry.
+	 *
+	 * @param key The entry key.
+	 */
+	synchronized void remove(final String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Remove an entry only when it still holds the given value.
+	 *
+	 * @param key   The entry key.
+	 * @param value The expected value.
+	 */
+	synchronized void remove(final String key, final V value) {
+		final var entry = entries.get(key);
+		if (entry != null && entry.value() == value) {
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	synchronized void clear() {
+		entries.clear();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.ligoj.app.plugin.inbox.sql.dao.MessageMembership;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory store of the memberships of the users, keyed by login. A membership is computed once, then kept for the
+ * configured duration or until a membership change is signaled. The least recently used memberships are evicted beyond
+ * {@value #MAX_SIZE} entries.
+ */
+@Component
+public class MessageMembershipCache {
+
+	/**
+	 * Configuration key of the duration in seconds a membership is kept. When <code>0</code>, the membership is
+	 * computed on each access.
+	 */
+	public static final String CONF_TTL = MessageResource.KEY + ":membership-ttl";
+
+	/**
+	 * Default duration in seconds a membership is kept.
+	 */
+	public static final int DEFAULT_TTL = 60;
+
+	/**
+	 * Maximal amount of cached memberships.
+	 */
+	private static final int MAX_SIZE = 10000;
+
+	@Autowired
+	protected MessageRepository repository;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * Memberships.
+	 */
+	private final MessageLruCache<MessageMembership> memberships = new MessageLruCache<>(MAX_SIZE);
+
+	/**
+	 * Return the memberships of the given user.
+	 *
+	 * @param login The user login.
+	 * @return The memberships of this user.
+	 */
+	public MessageMembership get(final String login) {
+		final var now = System.currentTimeMillis();
+		final var cached = memberships.get(login, now);
+		if (cached != null) {
+			return cached;
+		}
+		final var membership = new MessageMembership(repository.findGroups(login), repository.findCompanies(login),
+				repository.findProjects(login), withAncestors(repository.findSubscribedNodes(login)));
+		final var ttl = configuration.get(CONF_TTL, DEFAULT_TTL);
+		if (ttl > 0) {
+			memberships.put(login, membership, now + ttl * 1000L);
+		}
+		return membership;
+	}
+
+	/**
+	 * Evict the memberships of the given users. Should be called after a membership change of these users.
+	 *
+	 * @param logins The users to evict.
+	 */
+	public void evict(final Collection<String> logins) {
+		logins.forEach(memberships::remove);
+	}
+
+	/**
+	 * Evict all memberships. Should be called after a membership change.
+	 */
+	public void evictAll() {
+		memberships.clear();
+	}
+
+	/**
+	 * Return the given nodes and their ancestors: a message targeting a node is received by the subscribers of this
+	 * node and of its descendants.
+	 *
+	 * @param nodes The node identifiers.
+	 * @return The node identifiers and their ancestors.
+	 */
+	static Collection<String> withAncestors(final Collection<String> nodes) {
+		final var result = new HashSet<String>();
+		nodes.forEach(n -> {
+			result.add(n);
+			for (var i = n.indexOf(':'); i > 0; i = n.indexOf(':', i + 1)) {
+				result.add(n.substring(0, i));
+			}
+		});
+		return result;
+	}
+}
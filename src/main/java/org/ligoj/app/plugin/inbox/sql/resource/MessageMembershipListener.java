@@ -0,0 +1,265 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceUnit;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.ligoj.app.iam.model.CacheCompany;
+import org.ligoj.app.iam.model.CacheGroup;
+import org.ligoj.app.iam.model.CacheMembership;
+import org.ligoj.app.iam.model.CacheProjectGroup;
+import org.ligoj.app.iam.model.CacheUser;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Follow the committed changes of the IAM cache, and synchronize the data derived from the memberships, see
+ * {@link MessageResource#refresh(java.util.Collection)}. A change of a user or of his memberships synchronizes this
+ * user only, a change of a group, a company, a project group, a project or a subscription synchronizes all users. The
+ * bulk statements of the IAM cache fire no entity event, they are signaled by {@link MessageIamCacheHook}. The changes
+ * are gathered during the configured delay, so a refresh of the whole IAM cache is synchronized once. A created or a
+ * deleted node synchronizes the node ancestors, see {@link MessageNodeAncestors#refresh()}.
+ */
+@Component
+@Slf4j
+public class MessageMembershipListener implements InitializingBean, DisposableBean, PostCommitInsertEventListener,
+		PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+	/**
+	 * Configuration key of the delay in seconds between a change and the synchronization. When <code>0</code>, the
+	 * changes are ignored.
+	 */
+	public static final String CONF_DELAY = MessageResource.KEY + ":refresh-delay";
+
+	/**
+	 * Default delay in seconds between a change and the synchronization.
+	 */
+	public static final int DEFAULT_DELAY = 5;
+
+	/**
+	 * SID
+	 */
+	private static final long serialVersionUID = 1L;
+
+	@Autowired
+	protected transient ConfigurationResource configuration;
+
+	@Autowired
+	@Lazy
+	protected transient MessageResource resource;
+
+	@Autowired
+	protected transient MessageNodeAncestors nodeAncestors;
+
+	@Autowired
+	protected transient PlatformTransactionManager transactionManager;
+
+	@PersistenceUnit
+	private transient EntityManagerFactory emf;
+
+	/**
+	 * The changed users, waiting for the synchronization. <code>null</code> when all users have to be synchronized.
+	 */
+	private transient Set<String> changed = new HashSet<>();
+
+	/**
+	 * When <code>true</code>, a node has been created or deleted, waiting for the synchronization.
+	 */
+	private transient boolean nodes;
+
+	/**
+	 * When <code>true</code>, a synchronization is scheduled.
+	 */
+	private transient boolean scheduled;
+
+	/**
+	 * Thread running the synchronization. <code>null</code> when the changes are ignored.
+	 */
+	private transient ScheduledExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		if (configuration.get(CONF_DELAY, DEFAULT_DELAY) > 0) {
+			executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				final var thread = new Thread(r, "inbox-refresh");
+				thread.setDaemon(true);
+				return thread;
+			});
+			final var registry = emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry().getService(EventListenerRegistry.class);
+			registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+			registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+			registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public boolean requiresPostCommitHandling(final EntityPersister persister) {
+		final var type = persister.getMappedClass();
+		return type == CacheUser.class || type == CacheMembership.class || type == CacheGroup.class || type == CacheCompany.class
+				|| type == CacheProjectGroup.class || type == Project.class || type == Subscription.class || type == Node.class;
+	}
+
+	@Override
+	public void onPostInsert(final PostInsertEvent event) {
+		changed(event.getEntity());
+	}
+
+	@Override
+	public void onPostUpdate(final PostUpdateEvent event) {
+		if (!(event.getEntity() instanceof Node)) {
+			// The identifier of a node, including its ancestors, is immutable
+			changed(event.getEntity());
+		}
+	}
+
+	@Override
+	public void onPostDelete(final PostDeleteEvent event) {
+		changed(event.getEntity());
+	}
+
+	@Override
+	public void onPostInsertCommitFailed(final PostInsertEvent event) {
+		// Nothing changed
+	}
+
+	@Override
+	public void onPostUpdateCommitFailed(final PostUpdateEvent event) {
+		// Nothing changed
+	}
+
+	@Override
+	public void onPostDeleteCommitFailed(final PostDeleteEvent event) {
+		// Nothing changed
+	}
+
+	/**
+	 * Register a committed change of the IAM cache or of the nodes.
+	 *
+	 * @param entity The changed entity.
+	 */
+	void changed(final Object entity) {
+		if (entity instanceof Node) {
+			changedNode();
+		} else if (entity instanceof CacheUser user) {
+			changed(user.getId());
+		} else if (entity instanceof CacheMembership membership && membership.getUser() != null) {
+			changed(membership.getUser().getId());
+		} else {
+			changed((String) null);
+		}
+	}
+
+	/**
+	 * Register a change of the IAM cache not seen by the entity events, all users being synchronized once the current
+	 * transaction, if any, is committed.
+	 */
+	void changedAll() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					changed((String) null);
+				}
+			});
+		} else {
+			changed((String) null);
+		}
+	}
+
+	/**
+	 * Register a changed user, and schedule the synchronization.
+	 *
+	 * @param login The changed user. When <code>null</code>, all users are synchronized.
+	 */
+	private synchronized void changed(final String login) {
+		if (login == null) {
+			changed = null;
+		} else if (changed != null) {
+			changed.add(login);
+		}
+		schedule();
+	}
+
+	/**
+	 * Register a created or a deleted node, and schedule the synchronization.
+	 */
+	private synchronized void changedNode() {
+		nodes = true;
+		schedule();
+	}
+
+	/**
+	 * Schedule the synchronization, once for all changes gathered during the delay.
+	 */
+	private synchronized void schedule() {
+		if (!scheduled && executor != null) {
+			scheduled = true;
+			executor.schedule(this::run, configuration.get(CONF_DELAY, DEFAULT_DELAY), TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Synchronize the changed users and nodes.
+	 */
+	void run() {
+		final Set<String> users;
+		final boolean nodeChanged;
+		synchronized (this) {
+			users = changed;
+			nodeChanged = nodes;
+			changed = new HashSet<>();
+			nodes = false;
+			scheduled = false;
+		}
+		try {
+			if (nodeChanged && users != null) {
+				// A full synchronization includes the node ancestors
+				new TransactionTemplate(transactionManager).executeWithoutResult(s -> nodeAncestors.refresh());
+			}
+			if (users == null || !users.isEmpty()) {
+				resource.refresh(users);
+			}
+		} catch (final RuntimeException e) {
+			// The next change or an explicit refresh will synchronize them
+			log.warn("Unable to synchronize the changed memberships", e);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Meters of the inbox: a timer per endpoint and per repository query, and counters of the notable events. The meters
+ * are registered in the registry of the host when available, in the global registry otherwise.
+ * <ul>
+ * <li><code>ligoj.inbox.request</code>: timer tagged by <code>endpoint</code> and target <code>type</code>.</li>
+ * <li><code>ligoj.inbox.query</code>: timer tagged by repository <code>query</code>.</li>
+ * <li><code>ligoj.inbox.xss.rejected</code>, <code>ligoj.inbox.cursor.written</code>,
+ * <code>ligoj.inbox.cursor.skipped</code>: counters tagged by target <code>type</code>.</li>
+ * <li><code>ligoj.inbox.targets.resolved</code>: distribution of the target resolutions per page.</li>
+ * <li><code>ligoj.inbox.statements</code>: distribution of the SQL statements per endpoint call, tagged by
+ * <code>endpoint</code>. Each call is also logged at the debug level with its statements count and time.</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class MessageMetrics {
+
+	/**
+	 * Prefix of the meter names.
+	 */
+	public static final String PREFIX = "ligoj.inbox.";
+
+	/**
+	 * Tag of the target type.
+	 */
+	public static final String TAG_TYPE = "type";
+
+	/**
+	 * Tag value when there is no target type.
+	 */
+	private static final String NONE = "none";
+
+	@Autowired(required = false)
+	protected MeterRegistry registry = Metrics.globalRegistry;
+
+	@PersistenceContext
+	private EntityManager em;
+
+	/**
+	 * Time an endpoint call.
+	 *
+	 * @param <T>      The result type.
+	 * @param endpoint The endpoint name.
+	 * @param type     The target type. May be <code>null</code>.
+	 * @param call     The endpoint call.
+	 * @return The result of the call.
+	 */
+	public <T> T time(final String endpoint, final MessageTargetType type, final Supplier<T> call) {
+		final var statements = attach();
+		try {
+			return timer(endpoint, type).record(call);
+		} finally {
+			report(endpoint, statements);
+		}
+	}
+
+	/**
+	 * Time an endpoint call without result.
+	 *
+	 * @param endpoint The endpoint name.
+	 * @param type     The target type. May be <code>null</code>.
+	 * @param call     The endpoint call.
+	 */
+	public void run(final String endpoint, final MessageTargetType type, final Runnable call) {
+		final var statements = attach();
+		try {
+			timer(endpoint, type).record(call);
+		} finally {
+			report(endpoint, statements);
+		}
+	}
+
+	private Timer timer(final String endpoint, final MessageTargetType type) {
+		return Timer.builder(PREFIX + "request").tag("endpoint", endpoint).tag(TAG_TYPE, tag(type)).register(registry);
+	}
+
+	/**
+	 * Count the statements of the current transactional scope, when there is one. The session of a scope without
+	 * transaction is shared by the nested transactions.
+	 */
+	private MessageStatementCounter attach() {
+		return em != null && TransactionSynchronizationManager.isSynchronizationActive() ? MessageStatementCounter.attach(em) : null;
+	}
+
+	private void report(final String endpoint, final MessageStatementCounter statements) {
+		if (statements != null) {
+			statements.stop();
+			log.debug("Inbox {}: {} statements in {}ms", endpoint, statements.getStatements(), statements.getMillis());
+			DistributionSummary.builder(PREFIX + "statements").tag("endpoint", endpoint).register(registry).record(statements.getStatements());
+		}
+	}
+
+	/**
+	 * Record the time of a repository query.
+	 *
+	 * @param query The query name.
+	 * @param nanos The execution time of the query, in nanoseconds.
+	 */
+	public void query(final String query, final long nanos) {
+		Timer.builder(PREFIX + "query").tag("query", query).register(registry).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Increment a counter.
+	 *
+	 * @param name The counter name, without prefix.
+	 * @param type The target type. May be <code>null</code>.
+	 */
+	public void count(final String name, final MessageTargetType type) {
+		Counter.builder(PREFIX + name).tag(TAG_TYPE, tag(type)).register(registry).increment();
+	}
+
+	/**
+	 * Record an amount in a distribution.
+	 *
+	 * @param name   The distribution name, without prefix.
+	 * @param amount The recorded amount.
+	 */
+	public void record(final String name, final double amount) {
+		DistributionSummary.builder(PREFIX + name).register(registry).record(amount);
+	}
+
+	private String tag(final MessageTargetType type) {
+		return type == null ? NONE : type.name();
+	}
+}
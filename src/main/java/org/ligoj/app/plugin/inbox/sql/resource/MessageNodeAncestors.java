@@ -0,0 +1,69 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.ligoj.app.plugin.inbox.sql.dao.MessageNodeAncestorRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintain the node ancestor closure table used to match the messages targeting a node. The table is built at
+ * startup, synchronized after a node change by {@link MessageMembershipListener}, and completed for the targeted node
+ * on each write, so the reads never write it.
+ */
+@Component
+@Slf4j
+public class MessageNodeAncestors implements SmartInitializingSingleton {
+
+	@Autowired
+	protected MessageNodeAncestorRepository repository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		try {
+			new TransactionTemplate(transactionManager).executeWithoutResult(s -> refresh());
+		} catch (final RuntimeException e) {
+			// The next node change or an explicit refresh will build it
+			log.warn("Unable to build the node ancestors", e);
+		}
+	}
+
+	/**
+	 * Complete the closure table with a targeted node and its children, possibly created since the last
+	 * synchronization. The insert runs within a savepoint: a concurrent completion of the same node is rejected by
+	 * the primary key, and is then ignored without failing the current transaction.
+	 *
+	 * @param node The node identifier.
+	 */
+	public void add(final String node) {
+		final var template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		try {
+			template.executeWithoutResult(s -> repository.insertMissing(node));
+		} catch (final DataIntegrityViolationException e) {
+			log.info("Node ancestors of {} already completed", node);
+		}
+	}
+
+	/**
+	 * Synchronize the closure table with the current nodes. A node identifier includes its ancestors, so only the
+	 * created and the deleted nodes change the table. Only one synchronization runs at a time in this JVM, and the
+	 * inserts skip the nodes already present.
+	 */
+	public synchronized void refresh() {
+		final var deleted = repository.deleteObsolete();
+		final var inserted = repository.insertMissing();
+		log.info("Node ancestors synchronized, {} rows deleted, {} rows inserted", deleted, inserted);
+	}
+}
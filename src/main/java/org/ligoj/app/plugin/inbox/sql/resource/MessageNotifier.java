@@ -0,0 +1,325 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Push the message changes to the connected users, and complete the suspended requests waiting for a change. Once the
+ * change is committed, each involved user is notified by a bounded pool of threads, the changes of a user not yet
+ * notified being coalesced. A change only sends the last message identifier to the event sinks, the users pull their
+ * unread counter. But each suspended request of an involved user runs its counting queries, so a broadcast runs them
+ * for all suspended requests. A failing sink or request is released without affecting the other ones. The heartbeats
+ * are sent by a dedicated thread.
+ * <p>
+ * The event sinks, the suspended requests and the last message identifier are held by this JVM: with several nodes,
+ * a user connected to another node than the writer is only notified of the change by his next request, or by the
+ * reconnection of his event stream.
+ */
+@Component
+@Slf4j
+public class MessageNotifier implements InitializingBean, DisposableBean {
+
+	/**
+	 * Configuration key of the delay in seconds between two heartbeats sent to the connected users.
+	 */
+	public static final String CONF_HEARTBEAT = MessageResource.KEY + ":stream-heartbeat";
+
+	/**
+	 * Default delay in seconds between two heartbeats.
+	 */
+	public static final int DEFAULT_HEARTBEAT = 30;
+
+	/**
+	 * Configuration key of the amount of threads notifying the users.
+	 */
+	public static final String CONF_THREADS = MessageResource.KEY + ":notifier-threads";
+
+	/**
+	 * Default amount of threads notifying the users.
+	 */
+	public static final int DEFAULT_THREADS = 4;
+
+	/**
+	 * Event name of a new, updated or deleted message. The data is the message identifier.
+	 */
+	public static final String EVENT_MESSAGE = "message";
+
+	/**
+	 * Event name of the unread messages counter, sent on connection. The data is the counter.
+	 */
+	public static final String EVENT_COUNT = "count";
+
+	@Autowired
+	protected MessageRepository repository;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * Connected event sinks, by login.
+	 */
+	private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+	/**
+	 * Suspended requests waiting for a change, by login. A waiter returns <code>true</code> once completed.
+	 */
+	private final Map<String, Set<BooleanSupplier>> waiters = new ConcurrentHashMap<>();
+
+	/**
+	 * Users whose notification is queued and not yet started.
+	 */
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Identifier of the last written message, lazily initialized.
+	 */
+	private final AtomicInteger lastId = new AtomicInteger(-1);
+
+	/**
+	 * Thread sending the heartbeats.
+	 */
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Threads notifying the users.
+	 */
+	private ExecutorService pool;
+
+	/**
+	 * A connected event sink.
+	 *
+	 * @param sink The event sink.
+	 * @param sse  The event builder.
+	 */
+	private record Subscriber(SseEventSink sink, Sse sse) {
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			final var thread = new Thread(r, "inbox-notifier");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final var heartbeat = configuration.get(CONF_HEARTBEAT, DEFAULT_HEARTBEAT);
+		executor.scheduleWithFixedDelay(this::heartbeat, heartbeat, heartbeat, TimeUnit.SECONDS);
+		final var threads = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(configuration.get(CONF_THREADS, DEFAULT_THREADS), r -> {
+			final var thread = new Thread(r, "inbox-notifier-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+		pool.shutdownNow();
+		subscribers.values().forEach(s -> s.forEach(u -> u.sink().close()));
+		subscribers.clear();
+		waiters.clear();
+	}
+
+	/**
+	 * Return the identifier of the last written message.
+	 *
+	 * @return The identifier of the last written message. <code>0</code> when there is no message.
+	 */
+	public int getLastId() {
+		if (lastId.get() < 0) {
+			lastId.compareAndSet(-1, repository.findLastId());
+		}
+		return lastId.get();
+	}
+
+	/**
+	 * Register an event sink of a user, and send the current state.
+	 *
+	 * @param login       The user login.
+	 * @param sink        The event sink.
+	 * @param sse         The event builder.
+	 * @param lastEventId The last event identifier received by this user before a reconnection. May be
+	 *                    <code>null</code>.
+	 * @param count       The current unread counter of this user.
+	 */
+	public void subscribe(final String login, final SseEventSink sink, final Sse sse, final String lastEventId, final int count) {
+		final var subscriber = new Subscriber(sink, sse);
+		subscribers.computeIfAbsent(login, l -> ConcurrentHashMap.newKeySet()).add(subscriber);
+		final var last = getLastId();
+		if (lastEventId != null && !lastEventId.equals(String.valueOf(last))) {
+			// Some events have been missed while disconnected
+			send(login, subscriber, EVENT_MESSAGE, last, String.valueOf(last));
+		}
+		send(login, subscriber, EVENT_COUNT, last, String.valueOf(count));
+	}
+
+	/**
+	 * Notify the given users of a message change once the current transaction, if any, is committed.
+	 *
+	 * @param logins  The users of the audience of the message. When <code>null</code>, all connected users are notified.
+	 * @param message The changed message identifier.
+	 */
+	public void publish(final Collection<String> logins, final int message) {
+		final Runnable task = () -> {
+			lastId.accumulateAndGet(message, Integer::max);
+			final Collection<String> notified;
+			if (logins == null) {
+				notified = new HashSet<>(subscribers.keySet());
+				notified.addAll(waiters.keySet());
+			} else {
+				notified = logins;
+			}
+			notified.forEach(this::notify);
+		};
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					task.run();
+				}
+			});
+		} else {
+			task.run();
+		}
+	}
+
+	/**
+	 * Queue the notification of a user, unless one is already queued and not yet started.
+	 */
+	private void notify(final String login) {
+		if ((subscribers.containsKey(login) || waiters.containsKey(login)) && pending.add(login)) {
+			pool.execute(() -> {
+				pending.remove(login);
+				final var last = lastId.get();
+				final var data = String.valueOf(last);
+				new ArrayList<>(subscribers.getOrDefault(login, Set.of())).forEach(s -> send(login, s, EVENT_MESSAGE, last, data));
+				new ArrayList<>(waiters.getOrDefault(login, Set.of())).stream().filter(this::complete).forEach(w -> release(login, w));
+			});
+		}
+	}
+
+	/**
+	 * Call a suspended request, a failing one being released.
+	 *
+	 * @return <code>true</code> when the request is completed or failed.
+	 */
+	private boolean complete(final BooleanSupplier waiter) {
+		try {
+			return waiter.getAsBoolean();
+		} catch (final RuntimeException e) {
+			// Answered by its timeout
+			log.warn("Unable to complete a suspended request", e);
+			return true;
+		}
+	}
+
+	/**
+	 * Register a suspended request of a user. The waiter is called after each committed change of a message of its
+	 * audience, until it returns <code>true</code>.
+	 *
+	 * @param login  The user login.
+	 * @param waiter The suspended request. Returns <code>true</code> once completed.
+	 */
+	public void await(final String login, final BooleanSupplier waiter) {
+		waiters.computeIfAbsent(login, l -> ConcurrentHashMap.newKeySet()).add(waiter);
+	}
+
+	/**
+	 * Unregister a suspended request of a user.
+	 *
+	 * @param login  The user login.
+	 * @param waiter The suspended request.
+	 */
+	public void release(final String login, final BooleanSupplier waiter) {
+		waiters.computeIfPresent(login, (l, w) -> {
+			w.remove(waiter);
+			return w.isEmpty() ? null : w;
+		});
+	}
+
+	/**
+	 * Return the amount of suspended requests.
+	 *
+	 * @return The amount of suspended requests.
+	 */
+	public int getWaiting() {
+		return waiters.values().stream().mapToInt(Set::size).sum();
+	}
+
+	/**
+	 * Return the amount of connected event sinks.
+	 *
+	 * @return The amount of connected event sinks.
+	 */
+	public int getConnected() {
+		return subscribers.values().stream().mapToInt(Set::size).sum();
+	}
+
+	/**
+	 * Send a comment to all event sinks, and release the closed ones.
+	 */
+	void heartbeat() {
+		subscribers.forEach((l, s) -> s.forEach(u -> {
+			if (u.sink().isClosed()) {
+				unsubscribe(l, u);
+			} else {
+				u.sink().send(u.sse().newEventBuilder().comment("heartbeat").build()).whenComplete((r, e) -> unsubscribeOnError(l, u, e));
+			}
+		}));
+	}
+
+	private void send(final String login, final Subscriber subscriber, final String name, final int id, final String data) {
+		if (subscriber.sink().isClosed()) {
+			unsubscribe(login, subscriber);
+		} else {
+			try {
+				subscriber.sink().send(subscriber.sse().newEventBuilder().name(name).id(String.valueOf(id)).data(data).build())
+						.whenComplete((r, e) -> unsubscribeOnError(login, subscriber, e));
+			} catch (final RuntimeException e) {
+				unsubscribe(login, subscriber);
+			}
+		}
+	}
+
+	private void unsubscribeOnError(final String login, final Subscriber subscriber, final Throwable error) {
+		if (error != null) {
+			unsubscribe(login, subscriber);
+		}
+	}
+
+	private void unsubscribe(final String login, final Subscriber subscriber) {
+		log.debug("Release the event sink of {}", login);
+		subscribers.computeIfPresent(login, (l, s) -> {
+			s.remove(subscriber);
+			return s.isEmpty() ? null : s;
+		});
+		subscriber.sink().close();
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.hibernate.Session;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageReadRepository;
+import org.ligoj.app.plugin.inbox.sql.model.MessageRead;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Read cursors of the users. A cursor is only written when it moves forward, either immediately with a conditional
+ * update, or when the write-behind mode is enabled, coalesced in memory and periodically flushed in JDBC batches. In
+ * this last mode, the unread counters include the not yet flushed moves only after the next flush.
+ */
+@Component
+@Slf4j
+public class MessageReadCursors implements InitializingBean, DisposableBean {
+
+	/**
+	 * Configuration key of the delay in seconds between two flushes of the cursors. When <code>0</code>, the cursors
+	 * are written immediately.
+	 */
+	public static final String CONF_WRITE_BEHIND = MessageResource.KEY + ":cursor-write-behind";
+
+	/**
+	 * JDBC batch size of the flushed cursors.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	@Autowired
+	protected MessageReadRepository repository;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private MessageUnreadCache unreadCache;
+
+	@PersistenceContext
+	private EntityManager em;
+
+	/**
+	 * Cursors not yet flushed, by login.
+	 */
+	private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * Thread flushing the cursors. <code>null</code> when the cursors are written immediately.
+	 */
+	private ScheduledExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		final var delay = configuration.get(CONF_WRITE_BEHIND, 0);
+		if (delay > 0) {
+			executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				final var thread = new Thread(r, "inbox-cursors");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			flush();
+		}
+	}
+
+	/**
+	 * Return the identifier of the last read message by the given user, including the cursors not yet flushed.
+	 *
+	 * @param user The user login.
+	 * @return The identifier of the last read message. <code>null</code> when this user has never read the messages.
+	 */
+	public Integer get(final String user) {
+		// Not loaded as a managed entity, the cursor is moved by bulk update
+		final var cursor = repository.findCursor(user);
+		final var unflushed = pending.get(user);
+		return cursor == null || unflushed == null ? ObjectUtils.firstNonNull(unflushed, cursor) : Math.max(cursor, unflushed);
+	}
+
+	/**
+	 * Move forward the cursor of the given user. Nothing is written when the cursor is already beyond the given
+	 * message.
+	 *
+	 * @param user    The user login.
+	 * @param message The identifier of the last read message.
+	 */
+	public void advance(final String user, final int message) {
+		if (executor == null) {
+			// Atomic move, never backward even with concurrent moves
+			if (repository.advance(user, message) == 0 && repository.findCursor(user) == null) {
+				create(user, message);
+			}
+		} else {
+			pending.merge(user, message, Integer::max);
+		}
+	}
+
+	/**
+	 * Create the cursor of a first access within a savepoint. A concurrent first access of the same user is rejected
+	 * by the primary key without failing the current transaction, and the created cursor is then moved forward.
+	 *
+	 * @param user    The user login.
+	 * @param message The identifier of the last read message.
+	 */
+	void create(final String user, final int message) {
+		final var template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		try {
+			template.executeWithoutResult(s -> repository.create(user, message));
+		} catch (final DataIntegrityViolationException e) {
+			log.info("Read cursor of {} created concurrently", user);
+			repository.advance(user, message);
+		}
+	}
+
+	/**
+	 * Write the pending cursors in a dedicated transaction, in JDBC batches.
+	 */
+	void flush() {
+		final var users = new ArrayList<>(pending.keySet());
+		if (users.isEmpty()) {
+			return;
+		}
+		final var cursors = new HashMap<String, Integer>();
+		users.forEach(u -> cursors.put(u, pending.remove(u)));
+		try {
+			new TransactionTemplate(transactionManager).executeWithoutResult(s -> {
+				em.unwrap(Session.class).setJdbcBatchSize(BATCH_SIZE);
+				final var missing = new HashMap<>(cursors);
+				repository.findAllById(users).forEach(r -> r.setMessage(Math.max(r.getMessage(), missing.remove(r.getId()))));
+				missing.forEach((u, m) -> em.persist(newCursor(u, m)));
+			});
+			log.debug("Flushed {} read cursors", users.size());
+
+			// The unread counters computed before this flush are outdated
+			unreadCache.evict(users);
+		} catch (final RuntimeException e) {
+			// Retry on next flush
+			log.warn("Unable to flush {} read cursors", users.size(), e);
+			cursors.forEach((u, m) -> pending.merge(u, m, Integer::max));
+		}
+	}
+
+	private MessageRead newCursor(final String user, final int message) {
+		final var cursor = new MessageRead();
+		cursor.setId(user);
+		cursor.setMessage(message);
+		return cursor;
+	}
+}
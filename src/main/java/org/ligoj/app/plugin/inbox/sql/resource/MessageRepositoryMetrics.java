@@ -0,0 +1,59 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.RepositoryInformation;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.data.repository.core.support.RepositoryProxyPostProcessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Time the queries of the inbox repositories : the factory of each repository of the package of
+ * {@link MessageRepository} is customized to add this interceptor to the repository proxy, recording the queries
+ * declared by this plug-in in {@link MessageMetrics}. The repository beans themselves are not replaced.
+ */
+@Component
+public class MessageRepositoryMetrics implements BeanPostProcessor, RepositoryProxyPostProcessor, MethodInterceptor {
+
+	@Autowired
+	private ObjectProvider<MessageMetrics> metrics;
+
+	@Override
+	public Object postProcessBeforeInitialization(final Object bean, final String beanName) {
+		if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factory && isInbox(factory.getObjectType())) {
+			factory.addRepositoryFactoryCustomizer(f -> f.addRepositoryProxyPostProcessor(this));
+		}
+		return bean;
+	}
+
+	@Override
+	public void postProcess(final ProxyFactory factory, final RepositoryInformation repositoryInformation) {
+		factory.addAdvice(this);
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+		final var method = invocation.getMethod();
+		if (!isInbox(method.getDeclaringClass())) {
+			return invocation.proceed();
+		}
+		final var start = System.nanoTime();
+		try {
+			return invocation.proceed();
+		} finally {
+			metrics.getObject().query(method.getDeclaringClass().getSimpleName() + "." + method.getName(), System.nanoTime() - start);
+		}
+	}
+
+	private boolean isInbox(final Class<?> type) {
+		return type.getPackageName().equals(MessageRepository.class.getPackageName());
+	}
+}
@@ -3,42 +3,63 @@
  */
 package org.ligoj.app.plugin.inbox.sql.resource;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-import jakarta.transaction.Transactional;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.ForbiddenException;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.ligoj.app.iam.IUserRepository;
 import org.ligoj.app.iam.IamProvider;
 import org.ligoj.app.plugin.id.resource.CompanyResource;
 import org.ligoj.app.plugin.id.resource.GroupResource;
 import org.ligoj.app.plugin.id.resource.UserOrgResource;
-import org.ligoj.app.plugin.inbox.sql.dao.MessageReadRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageArchiveRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRecipientRepository;
 import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRow;
 import org.ligoj.app.plugin.inbox.sql.model.Message;
-import org.ligoj.app.plugin.inbox.sql.model.MessageRead;
 import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
 import org.ligoj.app.resource.node.NodeResource;
 import org.ligoj.app.resource.project.BasicProjectVo;
 import org.ligoj.app.resource.project.ProjectHelper;
-import org.ligoj.bootstrap.core.AuditedBean;
 import org.ligoj.bootstrap.core.INamableBean;
 import org.ligoj.bootstrap.core.json.PaginationJson;
 import org.ligoj.bootstrap.core.json.TableItem;
@@ -47,13 +68,24 @@ import org.ligoj.bootstrap.core.plugin.FeaturePlugin;
 import org.ligoj.bootstrap.core.resource.BusinessException;
 import org.ligoj.bootstrap.core.security.SecurityHelper;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.ligoj.bootstrap.resource.system.session.ISessionSettingsProvider;
 import org.ligoj.bootstrap.resource.system.session.SessionSettings;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -67,6 +99,17 @@ import lombok.extern.slf4j.Slf4j;
 @Produces(MediaType.APPLICATION_JSON)
 public class MessageResource implements InitializingBean, ISessionSettingsProvider, FeaturePlugin {
 
+	/**
+	 * Plug-in key.
+	 */
+	public static final String KEY = "feature:inbox:sql";
+
+	/**
+	 * Configuration key enabling the materialized recipients. When <code>true</code>, the recipients of each message
+	 * are stored when the message is written, and the inbox of a user is read from this table.
+	 */
+	public static final String CONF_RECIPIENT = KEY + ":recipient";
+
 	@Autowired
 	private MessageRepository repository;
 
@@ -77,7 +120,7 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	private PaginationJson paginationJson;
 
 	@Autowired
-	private IamProvider[] iamProvider;
+	protected IamProvider[] iamProvider;
 
 	@Autowired
 	protected UserOrgResource userResource;
@@ -95,13 +138,105 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	protected GroupResource groupResource;
 
 	@Autowired
-	private MessageReadRepository messageReadRepository;
+	private MessageRecipientRepository recipientRepository;
+
+	@Autowired
+	private MessageArchiveRepository archiveRepository;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	private MessageUnreadCache unreadCache;
+
+	@Autowired
+	private MessageNotifier notifier;
+
+	@Autowired
+	protected MessageSearch search;
+
+	@Autowired
+	private MessageMembershipCache membershipCache;
+
+	@Autowired
+	private MessageReadCursors cursors;
+
+	@Autowired
+	private MessageSanitizer sanitizer;
+
+	@Autowired
+	private MessageAudienceCache audienceCache;
+
+	@Autowired
+	private MessageNodeAncestors nodeAncestors;
+
+	@Autowired
+	private MessageMetrics metrics;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	protected Validator validator;
+
+	/**
+	 * When <code>true</code>, the user cache has been loaded once.
+	 */
+	private volatile boolean userCacheReady;
+
+	/**
+	 * When <code>true</code>, the user cache is being reloaded in the background.
+	 */
+	private final AtomicBoolean userCacheReloading = new AtomicBoolean();
 
 	/**
 	 * Configuration of checker function for a given {@link MessageTargetType}
 	 */
 	private final Map<MessageTargetType, Function<String, INamableBean<?>>> checker = new EnumMap<>(MessageTargetType.class);
 
+	/**
+	 * Query parameter enabling the keyset pagination: identifier of the last message already returned. When empty, the
+	 * newest messages are returned.
+	 */
+	public static final String PARAM_BEFORE = "before";
+
+	/**
+	 * Default amount of messages returned with the keyset pagination.
+	 */
+	private static final int DEFAULT_ROWS = 20;
+
+	/**
+	 * Maximal amount of messages returned with the keyset pagination.
+	 */
+	private static final int MAX_ROWS = 100;
+
+	/**
+	 * Maximal amount of messages created by a single batch.
+	 */
+	public static final int MAX_BATCH = 1000;
+
+	/**
+	 * Maximal delay in seconds of a suspended unread messages counter request.
+	 */
+	public static final int MAX_WAIT = 60;
+
+	/**
+	 * Provider of messages older than a given message.
+	 */
+	@FunctionalInterface
+	private interface SliceProvider {
+
+		/**
+		 * Return the messages of the given user older than the given message.
+		 *
+		 * @param user   The user requesting the messages.
+		 * @param before The exclusive upper bound of the returned message identifiers.
+		 * @param page   The ordering and size data.
+		 * @return The related messages.
+		 */
+		Slice<MessageRow> apply(String user, int before, Pageable page);
+	}
+
 	/**
 	 * Ordered columns.
 	 */
@@ -124,15 +259,25 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	@DELETE
 	@Path("{id}")
 	public void delete(@PathParam("id") final int id) {
+		metrics.run("delete", null, () -> {
+			// Ensure the user cache is loaded
+			loadUserCache();
+			if (repository.deleteVisible(id, securityHelper.getLogin()) != 1) {
+				// Message not found or not visible. Whatever, return an exception
+				throw new ValidationJsonException("id", BusinessException.KEY_UNKNOWN_ID, "0", "message", "1", id);
+			}
+			final var audience = isRecipient() ? recipientRepository.findLogins(id) : null;
+			recipientRepository.deleteByMessage(id);
+			search.remove(id);
 
-		// Force the user cache to be loaded
-		getUser().findAll();
-
-		repository.findAll(securityHelper.getLogin(), null, PageRequest.of(0, 20));
-		if (repository.deleteVisible(id, securityHelper.getLogin()) != 1) {
-			// Message not found or not visible. Whatever, return an exception
-			throw new ValidationJsonException("id", BusinessException.KEY_UNKNOWN_ID, "0", "message", "1", id);
-		}
+			// Update the unread counters of the audience
+			if (audience == null) {
+				unreadCache.evictAll();
+			} else {
+				unreadCache.evict(audience);
+			}
+			notifier.publish(audience, id);
+		});
 	}
 
 	/**
@@ -143,7 +288,7 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	 */
 	@PUT
 	public void update(final Message message) {
-		saveOrUpdate(message);
+		metrics.run("update", message.getTargetType(), () -> saveOrUpdate(message));
 	}
 
 	/**
@@ -155,7 +300,7 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	 */
 	@POST
 	public int create(final Message message) {
-		return saveOrUpdate(message).getId();
+		return metrics.time("create", message.getTargetType(), () -> saveOrUpdate(message).getId());
 	}
 
 	/**
@@ -170,14 +315,306 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 		message.setTarget(checkRights(message.getTargetType(), message.getTarget()));
 
 		// Basic XSS protection
-		if (!message.getValue().replaceAll("(<\\s*script|(src|href)\\s*=\\s*['\"](//|[^'\"]+:))", "").equals(message.getValue())) {
+		checkValue(message);
+		checkValidity(message);
+		message.setScheduled(isScheduled(message));
+		if (message.getTargetType() == MessageTargetType.NODE) {
+			// This node may have been created since the last synchronization of the node ancestors
+			nodeAncestors.add(message.getTarget());
+		}
+
+		// Target is valid, persist the message
+		final var creation = message.getId() == null;
+		final var saved = repository.saveAndFlush(message);
+		if (isRecipient()) {
+			// Expand the audience of this message
+			recipientRepository.deleteByMessage(saved.getId());
+			recipientRepository.insertByMessage(saved.getId());
+		}
+		search.index(saved);
+
+		// Update the unread counters of the audience
+		final var audience = getAudience(saved);
+		if (creation && isScheduled(saved)) {
+			// Not yet visible, notified when its validity starts
+			return saved;
+		}
+		if (creation && audience != null && saved.getValidUntil() == null) {
+			unreadCache.increment(audience);
+		} else {
+			// The previous audience is unknown, or this message may be already expired
+			unreadCache.evictAll();
+		}
+		notifier.publish(creation ? audience : null, saved.getId());
+		return saved;
+	}
+
+	/**
+	 * Check the value of the given message is free of XSS attempt.
+	 *
+	 * @param message
+	 *            The message to check.
+	 */
+	private void checkValue(final Message message) {
+		if (!sanitizer.isSafe(message.getValue())) {
 			// XSS attempt, report it
 			log.warn("XSS attempt from {} with message {}", securityHelper.getLogin(), message.getValue());
+			metrics.count("xss.rejected", message.getTargetType());
 			throw new ForbiddenException();
 		}
+	}
 
-		// Target is valid, persist the message
-		return repository.saveAndFlush(message);
+	/**
+	 * Check the validity bounds of the given message are ordered.
+	 *
+	 * @param message
+	 *            The message to check.
+	 */
+	private void checkValidity(final Message message) {
+		if (message.getValidFrom() != null && message.getValidUntil() != null && !message.getValidUntil().after(message.getValidFrom())) {
+			throw new ValidationJsonException("validUntil", "Future", "validFrom", message.getValidFrom());
+		}
+	}
+
+	/**
+	 * Indicate the given message starts its validity in the future.
+	 */
+	private boolean isScheduled(final Message message) {
+		return message.getValidFrom() != null && message.getValidFrom().after(new Date());
+	}
+
+	/**
+	 * Give a new identifier to the messages starting their validity. The read cursors, the unread counters, the
+	 * notifications and the keyset pagination all rely on the identifier order : the scheduled message becomes newer
+	 * than the messages read in the meantime. The author and the creation date are kept. A message already activated,
+	 * by another node for instance, is ignored.
+	 *
+	 * @param ids
+	 *            The identifiers of the messages starting their validity.
+	 * @return The new identifiers.
+	 */
+	public List<Integer> activate(final Collection<Integer> ids) {
+		final var recipient = isRecipient();
+		final var activated = new ArrayList<Integer>(ids.size());
+		for (final var message : repository.findAllById(ids)) {
+			if (repository.deleteScheduled(message.getId()) == 0) {
+				// Activated by a concurrent run
+				continue;
+			}
+			final var copy = new Message();
+			copy.setTargetType(message.getTargetType());
+			copy.setTarget(message.getTarget());
+			copy.setValue(message.getValue());
+			copy.setValidFrom(message.getValidFrom());
+			copy.setValidUntil(message.getValidUntil());
+			copy.setScheduled(false);
+			repository.saveAndFlush(copy);
+
+			// The auditing may have replaced the author by the job
+			copy.setCreatedBy(message.getCreatedBy());
+			copy.setCreatedDate(message.getCreatedDate());
+			if (recipient) {
+				recipientRepository.deleteByMessage(message.getId());
+				recipientRepository.insertByMessage(copy.getId());
+			}
+			search.remove(message.getId());
+			search.index(copy);
+			activated.add(copy.getId());
+		}
+		return activated;
+	}
+
+	/**
+	 * Create several messages at once. Each message is validated, each distinct target is checked once, then the valid
+	 * messages are persisted with a single flush. The invalid messages are reported without preventing the creation of
+	 * the other ones.
+	 *
+	 * @param messages
+	 *            The messages to create. Up to {@value #MAX_BATCH} messages.
+	 * @return The result of each message, in the same order: the identifier of the created message, or the validation
+	 *         errors.
+	 */
+	@POST
+	@Path("batch")
+	public List<MessageBatchResult> createAll(final List<Message> messages) {
+		return metrics.time("createAll", null, () -> {
+			if (messages.size() > MAX_BATCH) {
+				throw new ValidationJsonException("messages", "Size", "max", MAX_BATCH);
+			}
+
+			// Check the targets, each distinct one only once, and the values
+			final var targets = new HashMap<String, Object>();
+			final var results = new ArrayList<MessageBatchResult>(messages.size());
+			final var valid = new ArrayList<Message>();
+			final var validResults = new ArrayList<MessageBatchResult>();
+			for (final var message : messages) {
+				final var result = new MessageBatchResult();
+				results.add(result);
+				final var violations = validator.validate(message);
+				if (!violations.isEmpty()) {
+					result.setErrors(toErrors(violations));
+					continue;
+				}
+				final var target = targets.computeIfAbsent(message.getTargetType() + ":" + message.getTarget(),
+						k -> checkRightsSavepoint(message.getTargetType(), message.getTarget()));
+				if (target instanceof String normalized) {
+					message.setId(null);
+					message.setTarget(normalized);
+					try {
+						checkValue(message);
+						checkValidity(message);
+						message.setScheduled(isScheduled(message));
+						valid.add(message);
+						validResults.add(result);
+					} catch (final ForbiddenException e) {
+						result.setErrors(toErrors("value", "forbidden"));
+					} catch (final ValidationJsonException e) {
+						result.setErrors(e.getErrors());
+					}
+				} else if (target instanceof ValidationJsonException e) {
+					result.setErrors(e.getErrors());
+				} else if (target instanceof EntityNotFoundException) {
+					result.setErrors(toErrors("target", BusinessException.KEY_UNKNOWN_ID));
+				} else if (target instanceof ForbiddenException) {
+					result.setErrors(toErrors("target", "forbidden"));
+				} else {
+					throw (RuntimeException) target;
+				}
+			}
+			if (valid.isEmpty()) {
+				return results;
+			}
+
+			// These nodes may have been created since the last synchronization of the node ancestors
+			valid.stream().filter(m -> m.getTargetType() == MessageTargetType.NODE).map(Message::getTarget).distinct()
+					.forEach(nodeAncestors::add);
+
+			// Persist the valid messages with a single flush
+			repository.saveAll(valid);
+			repository.flush();
+			for (var i = 0; i < valid.size(); i++) {
+				validResults.get(i).setId(valid.get(i).getId());
+			}
+			final var ids = valid.stream().map(Message::getId).toList();
+			if (isRecipient()) {
+				recipientRepository.insertByMessages(ids);
+			}
+			valid.forEach(search::index);
+
+			// Update the unread counters and notify the users once for all messages
+			unreadCache.evictAll();
+			notifier.publish(null, Collections.max(ids));
+			return results;
+		});
+	}
+
+	/**
+	 * Check the rights within a savepoint of the current transaction. The resources of the targets mark the current
+	 * transaction as rollback-only when they reject a target, the rollback to the savepoint clears this mark, so a
+	 * single invalid item does not fail the commit of the whole batch.
+	 *
+	 * @return The normalized target, or the rejection.
+	 */
+	private Object checkRightsSavepoint(final MessageTargetType targetType, final String target) {
+		final var template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		try {
+			return template.execute(s -> checkRights(targetType, target));
+		} catch (final RuntimeException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * Return the validation errors of the given constraint violations, by property.
+	 */
+	private Map<String, ?> toErrors(final Set<? extends ConstraintViolation<?>> violations) {
+		return violations.stream().collect(Collectors.groupingBy(v -> v.getPropertyPath().toString(), Collectors.mapping(
+				v -> Map.of("rule", v.getConstraintDescriptor().getAnnotation().annotationType().getSimpleName()), Collectors.toList())));
+	}
+
+	/**
+	 * Return the validation errors of a single property.
+	 */
+	private Map<String, ?> toErrors(final String property, final String rule) {
+		return Map.of(property, List.of(Map.of("rule", rule)));
+	}
+
+	/**
+	 * Return the audience of the given message when known without evaluating the memberships: the materialized
+	 * recipients, or the targeted user.
+	 *
+	 * @param message
+	 *            The persisted message.
+	 * @return The audience logins. <code>null</code> when unknown.
+	 */
+	private Collection<String> getAudience(final Message message) {
+		if (isRecipient()) {
+			return recipientRepository.findLogins(message.getId());
+		}
+		if (message.getTargetType() == MessageTargetType.USER) {
+			return Collections.singleton(message.getTarget());
+		}
+		return null;
+	}
+
+	/**
+	 * Indicate the recipients are materialized.
+	 *
+	 * @return <code>true</code> when the recipients are materialized.
+	 */
+	private boolean isRecipient() {
+		return Boolean.parseBoolean(configuration.get(CONF_RECIPIENT, "false"));
+	}
+
+	/**
+	 * Synchronize the data derived from the memberships and the nodes of all users, see {@link #refresh(Collection)}.
+	 * Should be called after enabling the materialized recipients, or after a change of the IAM cache not seen by
+	 * {@link MessageMembershipListener}. Only available to the administrators.
+	 */
+	@PUT
+	@Path("refresh")
+	public void refresh() {
+		if (!repository.isAdmin(securityHelper.getLogin())) {
+			throw new ForbiddenException();
+		}
+		refresh(null);
+	}
+
+	/**
+	 * Synchronize the data derived from the memberships and the nodes: the node ancestors and the materialized
+	 * recipients. Only the differences are written. The cached memberships, audiences and unread counters of the
+	 * involved users are evicted, and the user cache is reloaded in the background.
+	 *
+	 * @param users
+	 *            The users whose memberships have changed. When <code>null</code>, all users and the nodes are
+	 *            synchronized.
+	 */
+	public void refresh(final Collection<String> users) {
+		metrics.run("refresh", null, () -> {
+			audienceCache.evictAll();
+			if (users == null) {
+				unreadCache.evictAll();
+				membershipCache.evictAll();
+				nodeAncestors.refresh();
+			} else {
+				unreadCache.evict(users);
+				membershipCache.evict(users);
+			}
+			if (isRecipient()) {
+				if (users == null) {
+					log.info("Recipients synchronized, {} deleted, {} inserted", recipientRepository.deleteObsolete(),
+							recipientRepository.insertMissing());
+				} else {
+					recipientRepository.deleteObsolete(users);
+					recipientRepository.insertMissing(users);
+				}
+			} else if (users == null) {
+				// Release the recipients materialized before disabling this mode
+				recipientRepository.deleteAllInBatch();
+			}
+			reloadUserCache();
+		});
 	}
 
 	/**
@@ -190,8 +627,8 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	 * @return The normalized and validated target.
 	 */
 	private String checkRights(final MessageTargetType targetType, final String target) {
-		// Force the user cache to be loaded
-		getUser().findAll();
+		// Ensure the user cache is loaded
+		loadUserCache();
 
 		// Check and normalize
 		final INamableBean<?> targetEntity = checker.get(targetType).apply(target);
@@ -208,13 +645,22 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	 * not member of this group.
 	 *
 	 * @param uriInfo
-	 *            filter data.
+	 *            filter data. When the {@value #PARAM_BEFORE} parameter is set, the keyset pagination is used.
 	 * @return Related messages, already read or not. Also there is an indicator on the message specifying the "new"
 	 *         state.
 	 */
 	@GET
+	@Transactional(propagation = Propagation.SUPPORTS)
 	public TableItem<MessageVo> findAll(@Context final UriInfo uriInfo) {
-		return findAllProvider(uriInfo, (user, pageRequest) -> repository.findAll(user, DataTableAttributes.getSearch(uriInfo), pageRequest));
+		return metrics.time("findAll", null, () -> {
+			final var criteria = DataTableAttributes.getSearch(uriInfo);
+			final var ids = search.search(criteria);
+			return findAllProvider(uriInfo,
+					(user, pageRequest) -> ids == null ? repository.findAll(user, criteria, pageRequest)
+							: repository.findAllIn(user, criteria, ids, pageRequest),
+					(user, before, page) -> ids == null ? repository.findAllBefore(user, criteria, before, page)
+							: repository.findAllBeforeIn(user, criteria, ids, before, page));
+		});
 	}
 
 	/**
@@ -228,96 +674,253 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	 */
 	@GET
 	@Path("audience/{targetType}/{target}")
+	@Transactional(propagation = Propagation.SUPPORTS)
 	public long audience(@PathParam("targetType") final MessageTargetType targetType, @PathParam("target") final String target) {
-		return repository.audience(targetType.name(), checkRights(targetType, target));
+		return metrics.time("audience", targetType, () -> {
+			final var normalized = readOnly(() -> checkRights(targetType, target));
+			return audienceCache.get(targetType, normalized, () -> readOnly(() -> repository.audience(targetType.name(), normalized)));
+		});
 	}
 
 	/**
 	 * Return messages related to current user. Also update at the same time the cursor indicating the read messages.
 	 *
 	 * @param uriInfo
-	 *            filter data.
+	 *            filter data. When the {@value #PARAM_BEFORE} parameter is set, the keyset pagination is used.
 	 * @return Related messages, already read or not. Also there is an indicator on the message specifying the "new"
 	 *         state.
 	 */
 	@GET
 	@Path("my")
+	@Transactional(propagation = Propagation.SUPPORTS)
 	public TableItem<MessageVo> findMy(@Context final UriInfo uriInfo) {
-		return findAllProvider(uriInfo, (user, pageRequest) -> repository.findMy(user, DataTableAttributes.getSearch(uriInfo), pageRequest));
+		return metrics.time("findMy", null, () -> {
+			final var criteria = DataTableAttributes.getSearch(uriInfo);
+			final var ids = search.search(criteria);
+			if (isRecipient()) {
+				return findAllProvider(uriInfo,
+						(user, pageRequest) -> ids == null ? repository.findMyRecipient(user, criteria, pageRequest)
+								: repository.findMyRecipientIn(user, criteria, ids, pageRequest),
+						(user, before, page) -> ids == null ? repository.findMyRecipientBefore(user, criteria, before, page)
+								: repository.findMyRecipientBeforeIn(user, criteria, ids, before, page));
+			}
+			return findAllProvider(uriInfo,
+					(user, pageRequest) -> ids == null ? repository.findMy(user, membershipCache.get(user), criteria, pageRequest)
+							: repository.findMyIn(user, membershipCache.get(user), criteria, ids, pageRequest),
+					(user, before, page) -> ids == null ? repository.findMyBefore(user, membershipCache.get(user), criteria, before, page)
+							: repository.findMyBeforeIn(user, membershipCache.get(user), criteria, ids, before, page));
+		});
+	}
+
+	/**
+	 * Return the archived messages related to current user. The read cursor is not updated, the archived messages are
+	 * never new.
+	 *
+	 * @param uriInfo
+	 *            filter data.
+	 * @return Related archived messages.
+	 * @see MessageRetention
+	 */
+	@GET
+	@Path("archive")
+	@Transactional(readOnly = true)
+	public TableItem<MessageVo> findArchive(@Context final UriInfo uriInfo) {
+		return metrics.time("findArchive", null, () -> {
+			// Ensure the user cache is loaded
+			loadUserCache();
+
+			final var user = securityHelper.getLogin();
+			final var page = archiveRepository.findMy(user, membershipCache.get(user), DataTableAttributes.getSearch(uriInfo),
+					paginationJson.getPageRequest(uriInfo, ORM_MAPPING, Collections.singleton("id")));
+			final var targets = resolveTargets(page.getContent());
+			return paginationJson.applyPagination(uriInfo, page, m -> toVo(m, targets));
+		});
 	}
 
 	/**
 	 * Return messages related to current user. Also update at the same time the cursor indicating the read messages.
+	 * The messages are queried in a read-only transaction, and the cursor is updated in a short write transaction.
 	 *
 	 * @param uriInfo
 	 *            filter data.
 	 * @param function
 	 *            Function providing the messages from a request and a user.
+	 * @param sliceFunction
+	 *            Function providing the messages older than a given message, used by the keyset pagination.
 	 * @return Related messages, already read or not. Also there is an indicator on the message specifying the "new"
 	 *         state.
 	 */
-	private TableItem<MessageVo> findAllProvider(final UriInfo uriInfo, final BiFunction<String, PageRequest, Page<Message>> function) {
+	private TableItem<MessageVo> findAllProvider(final UriInfo uriInfo, final BiFunction<String, PageRequest, Page<MessageRow>> function,
+			final SliceProvider sliceFunction) {
+		final var messages = readOnly(() -> findPage(uriInfo, function, sliceFunction));
+
+		// Then update the read messages indicator
+		write(() -> {
+			final var user = securityHelper.getLogin();
+			final var cursor = cursors.get(user);
+			final int read = cursor == null ? 0 : cursor;
+			final int last = markUnread(messages.getData(), read);
+			if (cursor == null || last > read) {
+				// Persist the state even if the user might has not read/seen the message, only when moved forward
+				cursors.advance(user, last);
+
+				// Some messages may be still unread, recount them on next access
+				unreadCache.evict(Collections.singleton(user));
+				metrics.count("cursor.written", null);
+			} else {
+				metrics.count("cursor.skipped", null);
+			}
+		});
+		return messages;
+	}
+
+	/**
+	 * Return a page of messages related to current user, without updating the read cursor.
+	 */
+	private TableItem<MessageVo> findPage(final UriInfo uriInfo, final BiFunction<String, PageRequest, Page<MessageRow>> function,
+			final SliceProvider sliceFunction) {
 
-		// Force the user cache to be loaded
-		getUser().findAll();
+		// Ensure the user cache is loaded
+		loadUserCache();
 
 		// Then query the messages
-		final TableItem<MessageVo> messages = paginationJson.applyPagination(uriInfo,
-				function.apply(securityHelper.getLogin(), paginationJson.getPageRequest(uriInfo, ORM_MAPPING, Collections.singleton("id"))), m -> {
-					final MessageVo vo = new MessageVo();
-					AuditedBean.copyAuditData(m, vo);
-					vo.setId(m.getId());
-					vo.setValue(m.getValue());
-					vo.setTargetType(m.getTargetType());
-					vo.setTarget(m.getTarget());
-
-					// Get the details of the target
-					fillTarget(m, vo);
-
-					// Attach user information of the source of the message
-					vo.setFrom(getUser().toUser(m.getCreatedBy()));
-					return vo;
-				});
+		final TableItem<MessageVo> messages;
+		final var before = uriInfo.getQueryParameters().getFirst(PARAM_BEFORE);
+		if (before == null) {
+			final var page = function.apply(securityHelper.getLogin(), paginationJson.getPageRequest(uriInfo, ORM_MAPPING, Collections.singleton("id")));
 
-		// Then update the read messages indicator
-		final MessageRead messageRead = Optional.ofNullable(messageReadRepository.findOne(securityHelper.getLogin())).orElseGet(() -> {
-			// First access
-			final MessageRead m = new MessageRead();
-			m.setId(securityHelper.getLogin());
-			return m;
-		});
-		messageRead.setMessage(Integer.max(messages.getData().stream().filter(m -> m.getId() > messageRead.getMessage()).map(m -> {
+			// Get the details of the targets, each distinct one only once
+			final var targets = resolveTargets(page.getContent());
+			messages = paginationJson.applyPagination(uriInfo, page, m -> toVo(m, targets));
+		} else {
+			// Keyset pagination, newest messages first and without total count
+			final var rows = Math.min(NumberUtils.toInt(uriInfo.getQueryParameters().getFirst(DataTableAttributes.PAGE_LENGTH), DEFAULT_ROWS), MAX_ROWS);
+			final var slice = sliceFunction.apply(securityHelper.getLogin(), NumberUtils.toInt(before, Integer.MAX_VALUE),
+					PageRequest.of(0, Math.max(rows, 1), Sort.by(Direction.DESC, "id")));
+			final var targets = resolveTargets(slice.getContent());
+			final var item = new MessageTableItem();
+			item.setData(slice.getContent().stream().map(m -> toVo(m, targets)).toList());
+			if (slice.hasNext()) {
+				item.setNext(slice.getContent().getLast().id());
+			}
+			messages = item;
+		}
+		return messages;
+	}
+
+	/**
+	 * Run the given queries in a read-only transaction, or in the current one. Hibernate neither flushes nor
+	 * snapshots the loaded entities, and the routing data source may read from a replica.
+	 *
+	 * @see MessageDataSourceRouting
+	 */
+	private <T> T readOnly(final Supplier<T> queries) {
+		final var template = new TransactionTemplate(transactionManager);
+		template.setReadOnly(true);
+		return MessageDataSourceRouting.replica(() -> template.execute(s -> queries.get()));
+	}
+
+	/**
+	 * Run the given queries on the main data source: in a new transaction when the current one is read-only, and may
+	 * be routed to a replica.
+	 *
+	 * @see MessageDataSourceRouting
+	 */
+	private <T> T primary(final Supplier<T> queries) {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return queries.get();
+		}
+		final var template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		return template.execute(s -> queries.get());
+	}
+
+	/**
+	 * Run the given change in a write transaction, or in the current one.
+	 */
+	private void write(final Runnable change) {
+		new TransactionTemplate(transactionManager).executeWithoutResult(s -> change.run());
+	}
+
+	/**
+	 * Flag the messages newer than the given cursor as unread.
+	 *
+	 * @param messages
+	 *            The returned messages.
+	 * @param read
+	 *            The identifier of the last read message.
+	 * @return The identifier of the last returned message, or the given cursor when there is no newer message.
+	 */
+	static int markUnread(final Collection<MessageVo> messages, final int read) {
+		return messages.stream().filter(m -> m.getId() > read).map(m -> {
 			// Then update the unread state of new messages
 			m.setUnread(true);
 			return m.getId();
-		}).max(Comparator.naturalOrder()).orElse(0), messageRead.getMessage()));
+		}).max(Comparator.naturalOrder()).orElse(read);
+	}
 
-		// Persist the state even if the user might has not read/seen the message
-		messageReadRepository.save(messageRead);
-		return messages;
+	/**
+	 * Build the message details from the given projected message and the resolved targets.
+	 */
+	static MessageVo toVo(final MessageRow m, final MessageTargets targets) {
+		final MessageVo vo = new MessageVo();
+		vo.setCreatedBy(m.createdBy());
+		vo.setCreatedDate(m.createdDate());
+		vo.setId(m.id());
+		vo.setValue(m.value());
+		vo.setTargetType(m.targetType());
+		vo.setTarget(m.target());
+		vo.setValidFrom(m.validFrom());
+		vo.setValidUntil(m.validUntil());
+		targets.fill(vo);
+		return vo;
 	}
 
 	/**
-	 * Complete the target object depending on the target type of the given message.
-	 */
-	private void fillTarget(final Message message, final MessageVo vo) {
-		switch (message.getTargetType()) {
-		case PROJECT:
-			vo.setProject(projectHelper.findByPKey(message.getTarget()));
-			break;
-		case COMPANY:
-			vo.setCompany(companyResource.findByName(message.getTarget()));
-			break;
-		case GROUP:
-			vo.setGroup(groupResource.findByName(message.getTarget()));
-			break;
-		case NODE:
-			vo.setNode(nodeResource.findByIdInternal(message.getTarget()));
-			break;
-		case USER:
-		default:
-			vo.setUser(getUser().toUser(message.getTarget()));
-		}
+	 * Resolve the details of the distinct targets and authors of the given messages, grouped by target type.
+	 */
+	private MessageTargets resolveTargets(final List<MessageRow> messages) {
+		final var calls = new AtomicInteger();
+		final var targets = new MessageTargets(
+				MessageTargets.resolve(messages, MessageTargetType.PROJECT, counting(calls, projectHelper::findByPKey)),
+				MessageTargets.resolve(messages, MessageTargetType.COMPANY, counting(calls, companyResource::findByName)),
+				MessageTargets.resolve(messages, MessageTargetType.GROUP, counting(calls, groupResource::findByName)),
+				MessageTargets.resolve(messages, MessageTargetType.NODE, counting(calls, nodeResource::findByIdInternal)),
+				MessageTargets.resolveUsers(messages, counting(calls, getUser()::toUser)));
+		metrics.record("targets.resolved", calls.get());
+		return targets;
+	}
+
+	/**
+	 * Return the given resolver counting its calls.
+	 */
+	private static <T> Function<String, T> counting(final AtomicInteger calls, final Function<String, T> resolver) {
+		return id -> {
+			calls.incrementAndGet();
+			return resolver.apply(id);
+		};
+	}
+
+	/**
+	 * Stream the events related to current user: the new messages and the unread messages counter. The current counter
+	 * is sent on connection.
+	 *
+	 * @param sink
+	 *            The event sink of this user.
+	 * @param sse
+	 *            The event builder.
+	 * @param lastEventId
+	 *            The last event identifier received before a reconnection. When older than the last message, a message
+	 *            event is sent.
+	 */
+	@GET
+	@Path("stream")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	@Transactional(readOnly = true)
+	public void stream(@Context final SseEventSink sink, @Context final Sse sse,
+			@HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) final String lastEventId) {
+		final var user = securityHelper.getLogin();
+		notifier.subscribe(user, sink, sse, lastEventId, countUnread(user));
 	}
 
 	/**
@@ -325,14 +928,89 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 	 *
 	 * @return Amount of unread messages related to current user.
 	 */
+	@Transactional(readOnly = true)
+	public int countUnread() {
+		return metrics.time("countUnread", null, () -> {
+			// Ensure the user cache is loaded
+			loadUserCache();
+
+			return countUnread(securityHelper.getLogin());
+		});
+	}
+
+	/**
+	 * Return amount of unread messages related to current user. When a last seen message and a wait delay are given,
+	 * the response is suspended without holding a container thread until a message newer than the last seen one and
+	 * related to current user is committed, or until the delay expires.
+	 *
+	 * @param since
+	 *            The identifier of the last message seen by current user. When <code>null</code>, the counter is
+	 *            returned immediately.
+	 * @param wait
+	 *            The maximal delay in seconds to wait for a new message, bounded by {@value #MAX_WAIT}.
+	 * @param response
+	 *            The suspended response completed with the amount of unread messages related to current user.
+	 */
 	@GET
 	@Path("count")
-	public int countUnread() {
+	@Transactional(readOnly = true)
+	public void countUnread(@QueryParam("since") final Integer since, @QueryParam("wait") final int wait,
+			@Suspended final AsyncResponse response) {
+		metrics.run("count", null, () -> {
+			loadUserCache();
+			final var user = securityHelper.getLogin();
+			final var count = countUnread(user);
+			if (since == null || wait <= 0 || hasNew(user, since)) {
+				response.resume(count);
+				return;
+			}
 
-		// Force the user cache to be loaded
-		getUser().findAll();
+			// Wait for a new message of this user
+			final BooleanSupplier waiter = () -> hasNew(user, since) && response.resume(countUnread(user));
+			response.setTimeout(Math.min(wait, MAX_WAIT), TimeUnit.SECONDS);
+			response.setTimeoutHandler(r -> {
+				notifier.release(user, waiter);
+				r.resume(countUnread(user));
+			});
+			notifier.await(user, waiter);
+			if (hasNew(user, since) && response.resume(countUnread(user))) {
+				// A message has been committed during the registration
+				notifier.release(user, waiter);
+			}
+		});
+	}
 
-		return repository.countUnread(securityHelper.getLogin());
+	/**
+	 * Indicate a message newer than the given one is related to the given user.
+	 *
+	 * @param user  The user requesting the counter.
+	 * @param since The identifier of the last message seen by this user.
+	 * @return <code>true</code> when a message newer than the given one is related to the given user.
+	 */
+	private boolean hasNew(final String user, final int since) {
+		// Only the range after the last seen message is counted, and only when a newer message exists
+		return notifier.getLastId() > since
+				&& (isRecipient() ? repository.countRecipientSince(user, since)
+						: repository.countSince(user, membershipCache.get(user), since)) > 0;
+	}
+
+	/**
+	 * Return amount of unread messages related to the given user.
+	 *
+	 * @param user The user requesting the counter.
+	 * @return Amount of unread messages related to given user.
+	 */
+	@Transactional(readOnly = true)
+	public int countUnread(final String user) {
+		return unreadCache.get(user, u -> {
+			// The replica may miss the last move of the cursor, and the counter is cached
+			final var cursor = primary(() -> cursors.get(u));
+			if (cursor == null) {
+				// Never read messages
+				return 0;
+			}
+			return isRecipient() ? repository.countRecipientSince(u, cursor) : repository.countSince(u, membershipCache.get(u), cursor);
+		});
 	}
 
 	@Override
@@ -353,14 +1031,53 @@ public class MessageResource implements InitializingBean, ISessionSettingsProvid
 		return iamProvider[0].getConfiguration().getUserRepository();
 	}
 
+	/**
+	 * Load the user cache on first use. The next requests skip this load, the cache is then reloaded in the background
+	 * by {@link #refresh(Collection)} after an IAM change.
+	 */
+	private void loadUserCache() {
+		if (!userCacheReady) {
+			synchronized (this) {
+				if (!userCacheReady) {
+					getUser().findAll();
+					userCacheReady = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reload in the background the user cache, when already loaded. A reload requested while another one is running
+	 * is skipped.
+	 */
+	private void reloadUserCache() {
+		if (userCacheReady && userCacheReloading.compareAndSet(false, true)) {
+			CompletableFuture.runAsync(() -> getUser().findAll()).whenComplete((r, e) -> {
+				userCacheReloading.set(false);
+				if (e != null) {
+					log.warn("Unable to reload the user cache", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Indicate the user cache has been loaded.
+	 *
+	 * @return <code>true</code> when the user cache has been loaded.
+	 */
+	public boolean isUserCacheReady() {
+		return userCacheReady;
+	}
+
 	@Override
 	public void decorate(final SessionSettings settings) {
 		// Add the unread messages counter
-		settings.getUserSettings().put("unreadMessages", repository.countUnread(settings.getUserName()));
+		settings.getUserSettings().put("unreadMessages", countUnread(settings.getUserName()));
 	}
 
 	@Override
 	public String getKey() {
-		return "feature:inbox:sql";
+		return KEY;
 	}
 }
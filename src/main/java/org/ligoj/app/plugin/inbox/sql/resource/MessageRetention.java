@@ -0,0 +1,169 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.ligoj.app.plugin.inbox.sql.dao.MessageArchiveRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRecipientRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retention of the messages. A periodic job moves to the archive the expired messages, the messages older than a
+ * given age, and the messages beyond a given amount per target. The messages are moved in bounded batches, each one in
+ * its own transaction, so the locks on the live messages are short. The messages of each target are ranked once per
+ * run to find the newest one to archive, then the older ones are moved using the target index.
+ */
+@Component
+@Slf4j
+public class MessageRetention implements InitializingBean, DisposableBean {
+
+	/**
+	 * Configuration key of the age in days beyond which a message is archived. When <code>0</code>, the messages are
+	 * not archived by age.
+	 */
+	public static final String CONF_DAYS = MessageResource.KEY + ":retention-days";
+
+	/**
+	 * Configuration key of the amount of messages kept per target, the older ones are archived. When <code>0</code>,
+	 * the messages are not archived by target.
+	 */
+	public static final String CONF_PER_TARGET = MessageResource.KEY + ":retention-per-target";
+
+	/**
+	 * Configuration key of the delay in seconds between two retention runs. When <code>0</code>, the job is not
+	 * scheduled.
+	 */
+	public static final String CONF_PERIOD = MessageResource.KEY + ":retention-period";
+
+	/**
+	 * Default delay in seconds between two retention runs.
+	 */
+	public static final int DEFAULT_PERIOD = 3600;
+
+	/**
+	 * Amount of messages moved per transaction.
+	 */
+	static final int BATCH_SIZE = 500;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	private MessageRepository repository;
+
+	@Autowired
+	private MessageArchiveRepository archiveRepository;
+
+	@Autowired
+	private MessageRecipientRepository recipientRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private MessageSearch search;
+
+	@Autowired
+	private MessageUnreadCache unreadCache;
+
+	/**
+	 * Thread running the job. <code>null</code> when the job is not scheduled.
+	 */
+	private ScheduledExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		final var period = configuration.get(CONF_PERIOD, DEFAULT_PERIOD);
+		if (period > 0) {
+			executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				final var thread = new Thread(r, "inbox-retention");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleWithFixedDelay(this::run, period, period, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void run() {
+		try {
+			archive();
+		} catch (final RuntimeException e) {
+			// Retry on next run
+			log.warn("Unable to archive the messages", e);
+		}
+	}
+
+	/**
+	 * Archive the messages beyond the configured retention.
+	 *
+	 * @return The amount of archived messages.
+	 */
+	int archive() {
+		final var now = new Date();
+		var count = archive(() -> repository.findIdsExpired(now, PageRequest.ofSize(BATCH_SIZE)));
+		final var days = configuration.get(CONF_DAYS, 0);
+		if (days > 0) {
+			final var date = new Date(now.getTime() - TimeUnit.DAYS.toMillis(days));
+			count += archive(() -> repository.findIdsCreatedBefore(date, PageRequest.ofSize(BATCH_SIZE)));
+		}
+		final var perTarget = configuration.get(CONF_PER_TARGET, 0);
+		if (perTarget > 0) {
+			for (final var cut : repository.findCuts(perTarget)) {
+				count += archive(() -> repository.findIdsUpTo(cut.targetType(), cut.target(), cut.id(), PageRequest.ofSize(BATCH_SIZE)));
+			}
+		}
+		if (count > 0) {
+			log.info("Archived {} messages", count);
+
+			// Some archived messages may be still unread
+			unreadCache.evictAll();
+		}
+		return count;
+	}
+
+	/**
+	 * Move the messages returned by the given finder, batch after batch until there is no more message to move.
+	 */
+	private int archive(final Supplier<List<Integer>> finder) {
+		var count = 0;
+		int moved;
+		do {
+			moved = new TransactionTemplate(transactionManager).execute(s -> {
+				final var ids = finder.get();
+				if (!ids.isEmpty()) {
+					archiveRepository.archive(ids);
+					recipientRepository.deleteByMessages(ids);
+					repository.deleteIn(ids);
+					ids.forEach(search::remove);
+				}
+				return ids.size();
+			});
+			count += moved;
+		} while (moved == BATCH_SIZE);
+		return count;
+	}
+}
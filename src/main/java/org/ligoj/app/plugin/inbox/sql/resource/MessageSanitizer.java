@@ -0,0 +1,86 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Basic XSS detection of a message value. The value is rejected when it contains a script tag, or a <code>src</code>
+ * or <code>href</code> attribute with a protocol relative URL or an URL with a scheme. The scan is a single pass
+ * without allocation, stopping at the first match. Same results than finding the regular expression
+ * <code>(&lt;\s*script|(src|href)\s*=\s*['"](//|[^'"]+:))</code>.
+ */
+@Component
+public class MessageSanitizer {
+
+	/**
+	 * Indicate the given value is free of XSS attempt.
+	 *
+	 * @param value The value to check.
+	 * @return <code>true</code> when the given value is accepted.
+	 */
+	public boolean isSafe(final String value) {
+		final var length = value.length();
+		for (var i = 0; i < length; i++) {
+			final var c = value.charAt(i);
+			if (c == '<' && value.startsWith("script", skipSpaces(value, i + 1))
+					|| c == 's' && value.startsWith("src", i) && isUrl(value, i + 3)
+					|| c == 'h' && value.startsWith("href", i) && isUrl(value, i + 4)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Indicate the given position starts an assignment of a quoted URL, relative to the protocol or with a scheme.
+	 */
+	private boolean isUrl(final String value, final int start) {
+		var i = skipSpaces(value, start);
+		if (i >= value.length() || value.charAt(i) != '=') {
+			return false;
+		}
+		i = skipSpaces(value, i + 1);
+		if (i >= value.length() || !isQuote(value.charAt(i))) {
+			return false;
+		}
+		i++;
+		if (value.startsWith("//", i)) {
+			return true;
+		}
+
+		// A scheme separator after at least one character, before the closing quote
+		if (i >= value.length() || isQuote(value.charAt(i))) {
+			return false;
+		}
+		for (i++; i < value.length() && !isQuote(value.charAt(i)); i++) {
+			if (value.charAt(i) == ':') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the position of the first non white space character from the given position.
+	 */
+	private int skipSpaces(final String value, final int start) {
+		var i = start;
+		while (i < value.length() && isSpace(value.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Same white spaces than the regular expression class <code>\s</code>.
+	 */
+	private boolean isSpace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+
+	private boolean isQuote(final char c) {
+		return c == '\'' || c == '"';
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Collection;
+
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+
+/**
+ * Search backend of the messages. The returned candidates are a superset of the messages matching the criteria, and are
+ * intersected with the visibility predicate and the exact criteria filter by the database.
+ */
+public interface MessageSearch {
+
+	/**
+	 * Return the identifiers of the messages possibly matching the given criteria.
+	 *
+	 * @param criteria The text to find in the target type, the target or the value of the messages.
+	 * @return The candidate identifiers. <code>null</code> when this backend cannot answer, for sample when disabled,
+	 *         or for a too short criteria, or for a too large result. Then the criteria is only evaluated by the
+	 *         database.
+	 */
+	Collection<Integer> search(String criteria);
+
+	/**
+	 * Index a created or updated message once the current transaction, if any, is committed.
+	 *
+	 * @param message The persisted message.
+	 */
+	void index(Message message);
+
+	/**
+	 * Remove a deleted message once the current transaction, if any, is committed.
+	 *
+	 * @param id The deleted message identifier.
+	 */
+	void remove(int id);
+
+	/**
+	 * Rebuild the index from the persisted messages.
+	 */
+	void rebuild();
+}
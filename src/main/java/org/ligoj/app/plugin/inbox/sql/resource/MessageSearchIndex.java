@@ -0,0 +1,334 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process trigram index of the messages, built in background from the database, then kept in sync by the message
+ * writes of this instance. The trigrams are case-insensitive, so the candidates are a superset of the
+ * <code>LIKE</code> matches whatever the database collation.
+ * <p>
+ * This index is local to this JVM, and bounded by a maximal amount of messages. The writes of the other instances are
+ * not followed: the index is considered as stale when a newer message exists in the database, or when it is older than
+ * the configured age. A stale, not yet built or oversized index answers nothing, so the criteria is evaluated by the
+ * database with <code>LIKE</code>, while it is rebuilt.
+ */
+@Component
+@Slf4j
+public class MessageSearchIndex implements MessageSearch, InitializingBean, DisposableBean {
+
+	/**
+	 * Configuration key enabling this index. Disabled by default.
+	 */
+	public static final String CONF_ENABLED = MessageResource.KEY + ":search-index";
+
+	/**
+	 * Configuration key of the maximal amount of candidates. Beyond this amount, the criteria is only evaluated by the
+	 * database.
+	 */
+	public static final String CONF_MAX_CANDIDATES = MessageResource.KEY + ":search-max-candidates";
+
+	/**
+	 * Default maximal amount of candidates.
+	 */
+	public static final int DEFAULT_MAX_CANDIDATES = 1000;
+
+	/**
+	 * Configuration key of the maximal amount of indexed messages. Beyond this amount, the index is dropped.
+	 */
+	public static final String CONF_MAX_MESSAGES = MessageResource.KEY + ":search-max-messages";
+
+	/**
+	 * Default maximal amount of indexed messages.
+	 */
+	public static final int DEFAULT_MAX_MESSAGES = 100000;
+
+	/**
+	 * Configuration key of the maximal age in seconds of the index, bounding the staleness caused by the updates and
+	 * the deletions of the other instances.
+	 */
+	public static final String CONF_MAX_AGE = MessageResource.KEY + ":search-max-age";
+
+	/**
+	 * Default maximal age in seconds of the index.
+	 */
+	public static final int DEFAULT_MAX_AGE = 300;
+
+	/**
+	 * Length of an indexed token.
+	 */
+	private static final int GRAM = 3;
+
+	@Autowired
+	protected MessageRepository repository;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * Message identifiers by trigram.
+	 */
+	private final Map<String, Set<Integer>> grams = new HashMap<>();
+
+	/**
+	 * Trigrams by message identifier, used to remove a message.
+	 */
+	private final Map<Integer, Set<String>> documents = new HashMap<>();
+
+	/**
+	 * When <code>true</code>, the index has been built and holds all messages.
+	 */
+	private boolean ready;
+
+	/**
+	 * Time of the last build.
+	 */
+	private long built;
+
+	/**
+	 * Maximal amount of indexed messages, read at the last build.
+	 */
+	private int capacity;
+
+	/**
+	 * Identifier of the last indexed message.
+	 */
+	private int last;
+
+	/**
+	 * When <code>true</code>, a build is scheduled.
+	 */
+	private boolean rebuilding;
+
+	/**
+	 * Thread building the index.
+	 */
+	private ExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		executor = Executors.newSingleThreadExecutor(r -> {
+			final var thread = new Thread(r, "inbox-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public Collection<Integer> search(final String criteria) {
+		if (criteria == null || criteria.length() < GRAM || StringUtils.containsAny(criteria, '%', '_')
+				|| !isEnabled()) {
+			// Too short criteria, or with wildcards
+			return null;
+		}
+		if (isStale()) {
+			schedule();
+			return null;
+		}
+		final var tokens = tokenize(criteria);
+		final var max = configuration.get(CONF_MAX_CANDIDATES, DEFAULT_MAX_CANDIDATES);
+		synchronized (this) {
+			// Intersect the postings, the smallest first
+			final var postings = tokens.stream().map(t -> grams.getOrDefault(t, Set.of())).sorted(Comparator.comparingInt(Set::size)).toList();
+			final var candidates = new HashSet<>(postings.getFirst());
+			postings.stream().skip(1).takeWhile(p -> !candidates.isEmpty()).forEach(candidates::retainAll);
+			return candidates.size() > max ? null : candidates;
+		}
+	}
+
+	@Override
+	public void index(final Message message) {
+		final var id = message.getId();
+		final var tokens = tokenize(message);
+		afterCommit(() -> add(id, tokens));
+	}
+
+	@Override
+	public void remove(final int id) {
+		afterCommit(() -> remove(id, documents.remove(id)));
+	}
+
+	@Override
+	public synchronized void rebuild() {
+		clear();
+		built = System.currentTimeMillis();
+		capacity = configuration.get(CONF_MAX_MESSAGES, DEFAULT_MAX_MESSAGES);
+		if (isEnabled()) {
+			final var rows = repository.findAllRows(PageRequest.of(0, capacity));
+			if (rows.hasNext()) {
+				log.info("Message search index not built, more than {} messages", capacity);
+				return;
+			}
+			ready = true;
+			rows.forEach(m -> add(m.id(), tokenize(m.targetType(), m.target(), m.value())));
+			log.info("Message search index built with {} messages and {} trigrams", documents.size(), grams.size());
+		}
+	}
+
+	/**
+	 * Indicate this index may miss some messages: not built, oversized, too old, or older than the last message
+	 * written by any instance.
+	 */
+	private boolean isStale() {
+		final int indexed;
+		synchronized (this) {
+			if (!ready || System.currentTimeMillis() - built > configuration.get(CONF_MAX_AGE, DEFAULT_MAX_AGE) * 1000L) {
+				return true;
+			}
+			indexed = last;
+		}
+		return repository.findLastId() > indexed;
+	}
+
+	/**
+	 * Schedule a build in background, unless one is already scheduled. An oversized index is not rebuilt before its
+	 * maximal age.
+	 */
+	private synchronized void schedule() {
+		if (executor == null || rebuilding
+				|| !ready && built > 0 && System.currentTimeMillis() - built <= configuration.get(CONF_MAX_AGE, DEFAULT_MAX_AGE) * 1000L) {
+			return;
+		}
+		rebuilding = true;
+		executor.execute(() -> {
+			try {
+				rebuild();
+			} catch (final RuntimeException e) {
+				// Retry on the next search
+				log.warn("Unable to build the message search index", e);
+			} finally {
+				synchronized (this) {
+					rebuilding = false;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Drop the postings, and consider the index as not built.
+	 */
+	private void clear() {
+		grams.clear();
+		documents.clear();
+		last = 0;
+		ready = false;
+	}
+
+	/**
+	 * Indicate this index is enabled.
+	 *
+	 * @return <code>true</code> when this index is enabled.
+	 */
+	private boolean isEnabled() {
+		return Boolean.parseBoolean(configuration.get(CONF_ENABLED, "false"));
+	}
+
+	/**
+	 * Add or replace the postings of a message. Beyond the maximal amount of messages, the index is dropped.
+	 */
+	private void add(final Integer id, final Set<String> tokens) {
+		if (!documents.containsKey(id) && documents.size() >= capacity) {
+			log.info("Message search index dropped, more than {} messages", capacity);
+			clear();
+			return;
+		}
+		remove(id, documents.put(id, tokens));
+		tokens.forEach(t -> grams.computeIfAbsent(t, k -> new HashSet<>()).add(id));
+		last = Math.max(last, id);
+	}
+
+	/**
+	 * Remove the postings of a message.
+	 */
+	private void remove(final Integer id, final Set<String> tokens) {
+		if (tokens != null) {
+			tokens.forEach(t -> grams.computeIfPresent(t, (k, p) -> {
+				p.remove(id);
+				return p.isEmpty() ? null : p;
+			}));
+		}
+	}
+
+	/**
+	 * Return the distinct trigrams of the searchable fields of the given message.
+	 */
+	private Set<String> tokenize(final Message message) {
+		return tokenize(message.getTargetType(), message.getTarget(), message.getValue());
+	}
+
+	/**
+	 * Return the distinct trigrams of the searchable fields.
+	 */
+	private Set<String> tokenize(final MessageTargetType targetType, final String target, final String value) {
+		return tokenize(Objects.toString(targetType, "") + '\n' + target + '\n' + value);
+	}
+
+	/**
+	 * Return the distinct trigrams of the given text, ignoring the case.
+	 */
+	private Set<String> tokenize(final String text) {
+		final var lower = text.toLowerCase(Locale.ROOT);
+		final var tokens = new HashSet<String>();
+		for (var i = 0; i + GRAM <= lower.length(); i++) {
+			tokens.add(lower.substring(i, i + GRAM));
+		}
+		return tokens;
+	}
+
+	/**
+	 * Apply the given change once the current transaction, if any, is committed. Changes are ignored until the index is
+	 * built, since the build reads the committed messages.
+	 */
+	private void afterCommit(final Runnable change) {
+		final Runnable guarded = () -> {
+			synchronized (this) {
+				if (ready) {
+					change.run();
+				}
+			}
+		};
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					guarded.run();
+				}
+			});
+		} else {
+			guarded.run();
+		}
+	}
+}
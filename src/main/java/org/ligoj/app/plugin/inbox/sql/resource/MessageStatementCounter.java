@@ -0,0 +1,145 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jakarta.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.hibernate.SessionEventListener;
+
+/**
+ * Count the JDBC statements executed by the current thread within the attached sessions, and their time, from its
+ * attachment until it is stopped. A JDBC batch counts as a single statement. A Hibernate session cannot detach its listeners, so each session gets a single
+ * stateless listener dispatching the events to the counters started by the current thread: a stopped counter is
+ * removed from them, and the listeners do not pile up with the calls.
+ */
+public final class MessageStatementCounter {
+
+	/**
+	 * The started counters of the current thread, the nested calls are counted by all of them.
+	 */
+	private static final ThreadLocal<List<MessageStatementCounter>> STARTED = new ThreadLocal<>();
+
+	/**
+	 * The sessions having the dispatching listener.
+	 */
+	private static final Set<Session> SESSIONS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	/**
+	 * Listener dispatching the statement events of a session to the started counters.
+	 */
+	private static final SessionEventListener DISPATCHER = new SessionEventListener() {
+
+		/**
+		 * SID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void jdbcExecuteStatementStart() {
+			dispatch(MessageStatementCounter::start);
+		}
+
+		@Override
+		public void jdbcExecuteStatementEnd() {
+			dispatch(MessageStatementCounter::end);
+		}
+
+		@Override
+		public void jdbcExecuteBatchStart() {
+			dispatch(MessageStatementCounter::start);
+		}
+
+		@Override
+		public void jdbcExecuteBatchEnd() {
+			dispatch(MessageStatementCounter::end);
+		}
+	};
+
+	private int statements;
+
+	private long nanos;
+
+	private long start;
+
+	private MessageStatementCounter() {
+		// Attached counter only
+	}
+
+	/**
+	 * Attach a new counter to the session of the given entity manager, until it is stopped.
+	 *
+	 * @param em The entity manager, bound to the current transaction.
+	 * @return The attached counter.
+	 */
+	public static MessageStatementCounter attach(final EntityManager em) {
+		final var session = em.unwrap(Session.class);
+		if (SESSIONS.add(session)) {
+			session.addEventListeners(DISPATCHER);
+		}
+		final var counter = new MessageStatementCounter();
+		var started = STARTED.get();
+		if (started == null) {
+			started = new ArrayList<>();
+			STARTED.set(started);
+		}
+		started.add(counter);
+		return counter;
+	}
+
+	private static void dispatch(final Consumer<MessageStatementCounter> event) {
+		final var started = STARTED.get();
+		if (started != null) {
+			started.forEach(event);
+		}
+	}
+
+	private void start() {
+		start = System.nanoTime();
+	}
+
+	private void end() {
+		statements++;
+		nanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Stop counting: this counter is removed from the started ones, the next statements are ignored.
+	 */
+	public void stop() {
+		final var started = STARTED.get();
+		if (started != null) {
+			started.remove(this);
+			if (started.isEmpty()) {
+				STARTED.remove();
+			}
+		}
+	}
+
+	/**
+	 * Return the amount of executed statements.
+	 *
+	 * @return The amount of executed statements.
+	 */
+	public int getStatements() {
+		return statements;
+	}
+
+	/**
+	 * Return the execution time of the statements.
+	 *
+	 * @return The execution time in milliseconds.
+	 */
+	public long getMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
@@ -0,0 +1,23 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.ligoj.bootstrap.core.json.TableItem;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Messages read with a cursor, without total count.
+ */
+@Getter
+@Setter
+public class MessageTableItem extends TableItem<MessageVo> {
+
+	/**
+	 * Cursor of the next messages: identifier of the last returned message. When <code>null</code>, there is no more
+	 * message.
+	 */
+	private Integer next;
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.ligoj.app.api.NodeVo;
+import org.ligoj.app.iam.SimpleUser;
+import org.ligoj.app.plugin.id.resource.ContainerWithScopeVo;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRow;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.app.resource.project.ProjectLightVo;
+
+/**
+ * Details of the distinct targets and authors of a page of messages, each one being resolved only once.
+ *
+ * @param projects  The resolved projects, by project key.
+ * @param companies The resolved companies, by identifier.
+ * @param groups    The resolved groups, by identifier.
+ * @param nodes     The resolved nodes, by identifier.
+ * @param users     The resolved users, by login. Include the targeted users and the authors.
+ */
+record MessageTargets(Map<String, ProjectLightVo> projects, Map<String, ContainerWithScopeVo> companies,
+		Map<String, ContainerWithScopeVo> groups, Map<String, NodeVo> nodes, Map<String, SimpleUser> users) {
+
+	/**
+	 * Resolve the distinct targets of the given type.
+	 *
+	 * @param messages The messages to resolve.
+	 * @param type     The target type to resolve.
+	 * @param resolver The function resolving a single target.
+	 * @param <T>      The target details type.
+	 * @return The resolved targets, by target.
+	 */
+	static <T> Map<String, T> resolve(final Collection<MessageRow> messages, final MessageTargetType type,
+			final Function<String, ? extends T> resolver) {
+		return resolve(messages.stream().filter(m -> m.targetType() == type).map(MessageRow::target), resolver);
+	}
+
+	/**
+	 * Resolve the distinct targeted users and authors.
+	 *
+	 * @param messages The messages to resolve.
+	 * @param resolver The function resolving a single user.
+	 * @return The resolved users, by login.
+	 */
+	static Map<String, SimpleUser> resolveUsers(final Collection<MessageRow> messages,
+			final Function<String, ? extends SimpleUser> resolver) {
+		return resolve(Stream.concat(messages.stream().map(MessageRow::createdBy),
+				messages.stream().filter(m -> m.targetType() == MessageTargetType.USER).map(MessageRow::target)), resolver);
+	}
+
+	private static <T> Map<String, T> resolve(final Stream<String> ids, final Function<String, ? extends T> resolver) {
+		final var result = new HashMap<String, T>();
+		ids.distinct().forEach(id -> result.put(id, resolver.apply(id)));
+		return result;
+	}
+
+	/**
+	 * Complete the target object depending on the target type of the given message, and the author.
+	 *
+	 * @param vo The message to complete.
+	 */
+	void fill(final MessageVo vo) {
+		switch (vo.getTargetType()) {
+		case PROJECT:
+			vo.setProject(projects.get(vo.getTarget()));
+			break;
+		case COMPANY:
+			vo.setCompany(companies.get(vo.getTarget()));
+			break;
+		case GROUP:
+			vo.setGroup(groups.get(vo.getTarget()));
+			break;
+		case NODE:
+			vo.setNode(nodes.get(vo.getTarget()));
+			break;
+		case USER:
+		default:
+			vo.setUser(users.get(vo.getTarget()));
+		}
+
+		// Attach user information of the source of the message
+		vo.setFrom(users.get(vo.getCreatedBy()));
+	}
+}
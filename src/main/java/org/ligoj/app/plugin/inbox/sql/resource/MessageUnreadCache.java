@@ -0,0 +1,172 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory store of the unread messages counters, keyed by login. A counter is lazily seeded from the database, then
+ * adjusted by the message writes and the read cursor moves of this JVM, and kept for the configured duration: the
+ * changes made by another node are seen once the counter expires. The least recently used counters are evicted beyond
+ * the configured size.
+ */
+@Component
+public class MessageUnreadCache implements InitializingBean {
+
+	/**
+	 * Configuration key of the maximal amount of cached counters.
+	 */
+	public static final String CONF_SIZE = MessageResource.KEY + ":unread-cache-size";
+
+	/**
+	 * Default maximal amount of cached counters.
+	 */
+	public static final int DEFAULT_SIZE = 10000;
+
+	/**
+	 * Configuration key of the duration in seconds a counter is kept. When <code>0</code>, the counter is computed on
+	 * each access.
+	 */
+	public static final String CONF_TTL = MessageResource.KEY + ":unread-ttl";
+
+	/**
+	 * Default duration in seconds a counter is kept.
+	 */
+	public static final int DEFAULT_TTL = 30;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	/**
+	 * Unread counters.
+	 */
+	private MessageLruCache<Integer> counters;
+
+	/**
+	 * Duration in milliseconds a counter is kept.
+	 */
+	private long ttl;
+
+	/**
+	 * Token of each counter being loaded, by login. Discarded by a change of this user, so a counter loaded
+	 * concurrently to this change is not cached, while the counters of the other users still are.
+	 */
+	private final Map<String, Object> loading = new ConcurrentHashMap<>();
+
+	@Override
+	public void afterPropertiesSet() {
+		ttl = configuration.get(CONF_TTL, DEFAULT_TTL) * 1000L;
+		counters = new MessageLruCache<>(configuration.get(CONF_SIZE, DEFAULT_SIZE));
+	}
+
+	/**
+	 * Return the unread counter of the given user.
+	 *
+	 * @param login  The user login.
+	 * @param loader The function computing the counter when not cached.
+	 * @return The unread counter.
+	 */
+	public int get(final String login, final ToIntFunction<String> loader) {
+		final var now = System.currentTimeMillis();
+		final var cached = counters.get(login, now);
+		if (cached != null) {
+			return cached;
+		}
+		final var token = new Object();
+		loading.put(login, token);
+		final int count;
+		try {
+			count = loader.applyAsInt(login);
+		} catch (final RuntimeException e) {
+			loading.remove(login, token);
+			throw e;
+		}
+		synchronized (counters) {
+			if (loading.remove(login, token) && ttl > 0) {
+				counters.put(login, count, now + ttl);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Increment the counters of the given users once the current transaction is committed.
+	 *
+	 * @param logins The users receiving a new message.
+	 */
+	public void increment(final Collection<String> logins) {
+		afterCommit(logins, () -> logins.forEach(l -> counters.update(l, c -> c + 1)));
+	}
+
+	/**
+	 * Evict the counters of the given users, now and once the current transaction is committed.
+	 *
+	 * @param logins The users to evict.
+	 */
+	public void evict(final Collection<String> logins) {
+		final Runnable change = () -> logins.forEach(counters::remove);
+		apply(logins, change);
+		afterCommit(logins, change);
+	}
+
+	/**
+	 * Evict all counters, now and once the current transaction is committed.
+	 */
+	public void evictAll() {
+		apply(null, counters::clear);
+		afterCommit(null, counters::clear);
+	}
+
+	/**
+	 * Apply the given change once the current transaction, if any, is committed.
+	 *
+	 * @param logins The changed users. When <code>null</code>, all users are changed.
+	 */
+	private void afterCommit(final Collection<String> logins, final Runnable change) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			discard(logins);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					apply(logins, change);
+				}
+			});
+		} else {
+			apply(logins, change);
+		}
+	}
+
+	/**
+	 * Apply the given change and discard the counters of the changed users being loaded.
+	 *
+	 * @param logins The changed users. When <code>null</code>, all users are changed.
+	 */
+	private void apply(final Collection<String> logins, final Runnable change) {
+		discard(logins);
+		change.run();
+	}
+
+	/**
+	 * Discard the counters of the given users being loaded.
+	 *
+	 * @param logins The changed users. When <code>null</code>, all users are changed.
+	 */
+	private void discard(final Collection<String> logins) {
+		if (logins == null) {
+			loading.clear();
+		} else {
+			logins.forEach(loading::remove);
+		}
+	}
+}
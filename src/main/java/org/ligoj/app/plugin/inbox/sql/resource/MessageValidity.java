@@ -0,0 +1,124 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Follow the validity of the messages. The queries already exclude the messages out of their validity, this job
+ * periodically looks for the scheduled messages whose validity has started, and for the messages ending their validity
+ * since the previous run, using the indexes. When found, the unread counters are evicted and the users are notified
+ * of the scheduled messages becoming visible. These messages get a new identifier, beyond the read cursors, see
+ * {@link MessageResource#activate(java.util.Collection)}. The scheduled state is persisted: the messages starting
+ * their validity while no node was running are activated by the next run, and each message is activated by a single
+ * node. The expired messages are archived by {@link MessageRetention}.
+ */
+@Component
+@Slf4j
+public class MessageValidity implements InitializingBean, DisposableBean {
+
+	/**
+	 * Configuration key of the delay in seconds between two checks. When <code>0</code>, the job is not scheduled.
+	 */
+	public static final String CONF_PERIOD = MessageResource.KEY + ":validity-period";
+
+	/**
+	 * Default delay in seconds between two checks.
+	 */
+	public static final int DEFAULT_PERIOD = 30;
+
+	@Autowired
+	protected ConfigurationResource configuration;
+
+	@Autowired
+	private MessageRepository repository;
+
+	@Autowired
+	private MessageUnreadCache unreadCache;
+
+	@Autowired
+	private MessageNotifier notifier;
+
+	@Autowired
+	@Lazy
+	private MessageResource resource;
+
+	/**
+	 * Date of the previous check, bounding the expired messages evicting the unread counters held by this node.
+	 */
+	private Date last = new Date();
+
+	/**
+	 * Thread running the job. <code>null</code> when the job is not scheduled.
+	 */
+	private ScheduledExecutorService executor;
+
+	@Override
+	public void afterPropertiesSet() {
+		final var period = configuration.get(CONF_PERIOD, DEFAULT_PERIOD);
+		if (period > 0) {
+			executor = Executors.newSingleThreadScheduledExecutor(r -> {
+				final var thread = new Thread(r, "inbox-validity");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleWithFixedDelay(this::run, period, period, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void run() {
+		try {
+			check(new Date());
+		} catch (final RuntimeException e) {
+			// Retry on next run, from the same date
+			log.warn("Unable to check the validity of the messages", e);
+		}
+	}
+
+	/**
+	 * Handle the scheduled messages starting their validity, and the messages ending their validity since the previous
+	 * check.
+	 *
+	 * @param now The current date.
+	 * @return The amount of messages starting or ending their validity.
+	 */
+	synchronized int check(final Date now) {
+		final var activated = repository.findIdsActivated(now);
+		final var expired = repository.countExpired(last, now);
+		last = now;
+		if (activated.isEmpty() && expired == 0) {
+			return 0;
+		}
+		log.info("{} messages starting and {} messages ending their validity", activated.size(), expired);
+		unreadCache.evictAll();
+		if (!activated.isEmpty()) {
+			final var ids = resource.activate(activated);
+			if (!ids.isEmpty()) {
+				notifier.publish(null, Collections.max(ids));
+			}
+		}
+		return activated.size() + expired;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed under MIT (https://github.com/ligoj/ligoj/blob/master/LICENSE)
+ */
+package org.ligoj.app.plugin.inbox.sql.dao;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import jakarta.transaction.Transactional;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * {@link MessageRepository} test cases checking the execution plans of the inbox queries. Each executed statement
+ * reading the message table is explained by H2 with realistic parameter values, must not fully scan this table, and
+ * must use the expected index. The unread counters of both modes are covered. Only the keyset mode of the listings
+ * is covered: the offset mode of findMy and findAll has no identifier range, its OR-ed audience branches cannot be
+ * combined by an index, and its count query reads all the matching messages anyway.
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+class MessageRepositoryTest extends AbstractAppTest {
+
+	/**
+	 * Statements involving the message table.
+	 */
+	private static final Pattern MESSAGE_TABLE = Pattern.compile("\\bLIGOJ_MESSAGE\\b");
+
+	/**
+	 * Full scan of the message table in a H2 plan.
+	 */
+	private static final String FULL_SCAN = "LIGOJ_MESSAGE.TABLESCAN";
+
+	/**
+	 * Index of the audience branches.
+	 */
+	private static final String TARGET_INDEX = "IX_MESSAGE_TARGET";
+
+	/**
+	 * Index of the materialized recipients of a user.
+	 */
+	private static final String RECIPIENT_INDEX = "IX_MESSAGE_RECIPIENT_LOGIN";
+
+	/**
+	 * Index of the messages written by a user.
+	 */
+	private static final String CREATED_BY_INDEX = "IX_MESSAGE_CREATED_BY";
+
+	private static final MessageMembership MEMBERSHIP = new MessageMembership(List.of("ligoj-jupiter"), List.of("ligoj"),
+			List.of("ligoj-jupiter"), List.of("service", "service:build"));
+
+	@Autowired
+	private MessageRepository repository;
+
+	@BeforeEach
+	void prepare() throws IOException {
+		persistEntities("csv", new Class<?>[] { Message.class }, StandardCharsets.UTF_8);
+		em.flush();
+		em.clear();
+	}
+
+	@Test
+	void findMyBefore() {
+		assertIndexed(TARGET_INDEX, () -> repository.findMyBefore("junit", MEMBERSHIP, null, Integer.MAX_VALUE,
+				PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "id"))));
+	}
+
+	@Test
+	void findAllBefore() {
+		assertIndexed(CREATED_BY_INDEX, () -> repository.findAllBefore("junit", null, Integer.MAX_VALUE,
+				PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "id"))));
+	}
+
+	@Test
+	void countSince() {
+		assertIndexed(TARGET_INDEX, () -> repository.countSince("junit", MEMBERSHIP, 0));
+	}
+
+	@Test
+	void countRecipientSince() {
+		assertIndexed(RECIPIENT_INDEX, () -> repository.countRecipientSince("junit", 0));
+	}
+
+	@Test
+	void deleteVisible() {
+		assertIndexed(CREATED_BY_INDEX, () -> repository.deleteVisible(-1, "junit"));
+	}
+
+	/**
+	 * Execute the given queries and check the execution plan of each statement involving the message table.
+	 */
+	private void assertIndexed(final String index, final Runnable queries) {
+		em.unwrap(Session.class).doWork(c -> {
+			Assumptions.assumeTrue("H2".equals(c.getMetaData().getDatabaseProductName()));
+			c.createStatement().execute("SET QUERY_STATISTICS TRUE");
+		});
+		try {
+			queries.run();
+			final var plans = em.unwrap(Session.class).doReturningWork(this::explain);
+			Assertions.assertFalse(plans.isEmpty());
+			plans.forEach(plan -> Assertions.assertFalse(plan.toUpperCase(Locale.ENGLISH).contains(FULL_SCAN), plan));
+			Assertions.assertTrue(plans.stream().anyMatch(plan -> plan.toUpperCase(Locale.ENGLISH).contains(index)), () -> String.join("\n", plans));
+		} finally {
+			em.unwrap(Session.class).doWork(c -> c.createStatement().execute("SET QUERY_STATISTICS FALSE"));
+		}
+	}
+
+	/**
+	 * Return the plans of the executed statements involving the message table. The statistics do not keep the
+	 * parameter values, so a realistic value is bound for each parameter type: a <code>NULL</code> comparison would
+	 * be planned as always false.
+	 */
+	private List<String> explain(final Connection connection) throws SQLException {
+		final var statements = new ArrayList<String>();
+		try (var rs = connection.createStatement().executeQuery("SELECT SQL_STATEMENT FROM INFORMATION_SCHEMA.QUERY_STATISTICS")) {
+			while (rs.next()) {
+				final var sql = rs.getString(1);
+				final var upper = sql.toUpperCase(Locale.ENGLISH);
+				if (MESSAGE_TABLE.matcher(upper).find() && (upper.startsWith("SELECT") || upper.startsWith("DELETE"))) {
+					statements.add(sql);
+				}
+			}
+		}
+		final var plans = new ArrayList<String>();
+		for (final var sql : statements) {
+			try (var ps = connection.prepareStatement("EXPLAIN " + sql)) {
+				final var parameters = ps.getParameterMetaData();
+				for (var i = 1; i <= parameters.getParameterCount(); i++) {
+					ps.setObject(i, switch (parameters.getParameterType(i)) {
+						case Types.INTEGER, Types.BIGINT, Types.SMALLINT -> 1;
+						case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE, Types.DATE -> new Timestamp(System.currentTimeMillis());
+						case Types.BOOLEAN -> true;
+						default -> "junit";
+					});
+				}
+				try (var rs = ps.executeQuery()) {
+					rs.next();
+					plans.add(rs.getString(1));
+				}
+			}
+		}
+		return plans;
+	}
+}
@@ -0,0 +1,228 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jakarta.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.ligoj.app.iam.model.CacheCompany;
+import org.ligoj.app.iam.model.CacheGroup;
+import org.ligoj.app.iam.model.CacheMembership;
+import org.ligoj.app.iam.model.CacheProjectGroup;
+import org.ligoj.app.iam.model.CacheUser;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+
+/**
+ * Synthetic dataset generator of the inbox schema, at a configurable scale. With a scale of <code>1</code>, there are
+ * 1M messages, 100k users, 5k groups in trees of depth {@value #GROUP_DEPTH}, 3k nodes and 2k projects. Logins are
+ * <code>user-N</code>, so the harness can pick the users.
+ */
+class InboxDatasetGenerator {
+
+	/**
+	 * Depth of the group trees.
+	 */
+	static final int GROUP_DEPTH = 6;
+
+	/**
+	 * Flush and clear period of the persisted entities.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	private final EntityManager em;
+
+	private final Random random = new Random(42);
+
+	private final List<CacheCompany> companies = new ArrayList<>();
+
+	private final List<CacheGroup> groups = new ArrayList<>();
+
+	private final List<CacheUser> users = new ArrayList<>();
+
+	private final List<Node> nodes = new ArrayList<>();
+
+	private final List<Project> projects = new ArrayList<>();
+
+	private int pending;
+
+	final int messageCount;
+
+	final int userCount;
+
+	final int groupCount;
+
+	final int nodeCount;
+
+	final int projectCount;
+
+	/**
+	 * Generator for a given scale.
+	 *
+	 * @param em    The entity manager.
+	 * @param scale The scale, <code>1</code> for the nominal size.
+	 */
+	InboxDatasetGenerator(final EntityManager em, final double scale) {
+		this.em = em;
+		this.messageCount = (int) Math.max(100, 1_000_000 * scale);
+		this.userCount = (int) Math.max(10, 100_000 * scale);
+		this.groupCount = (int) Math.max(GROUP_DEPTH, 5_000 * scale);
+		this.nodeCount = (int) Math.max(3, 3_000 * scale);
+		this.projectCount = (int) Math.max(2, 2_000 * scale);
+	}
+
+	/**
+	 * Persist the whole dataset.
+	 */
+	void generate() {
+		em.unwrap(Session.class).setJdbcBatchSize(BATCH_SIZE);
+		generateCompanies();
+		generateGroups();
+		generateUsers();
+		generateNodes();
+		generateProjects();
+		generateMessages();
+		flush();
+	}
+
+	private void generateCompanies() {
+		for (var i = 0; i < 10; i++) {
+			final var company = new CacheCompany();
+			company.setId("company-" + i);
+			company.setName("company-" + i);
+			company.setDescription("ou=company-" + i + ",ou=people,dc=sample,dc=com");
+			companies.add(persist(company));
+		}
+	}
+
+	/**
+	 * Groups in trees: each group is a sub-group of the previous one, until the depth is reached.
+	 */
+	private void generateGroups() {
+		for (var i = 0; i < groupCount; i++) {
+			final var group = new CacheGroup();
+			group.setId("group-" + i);
+			group.setName("group-" + i);
+			final var parent = i % GROUP_DEPTH == 0 ? null : groups.get(i - 1);
+			group.setDescription("cn=group-" + i + "," + (parent == null ? "ou=groups,dc=sample,dc=com" : parent.getDescription()));
+			groups.add(persist(group));
+			if (parent != null) {
+				final var membership = new CacheMembership();
+				membership.setGroup(parent);
+				membership.setSubGroup(group);
+				persist(membership);
+			}
+		}
+	}
+
+	/**
+	 * Users in a company, and in 3 random groups.
+	 */
+	private void generateUsers() {
+		for (var i = 0; i < userCount; i++) {
+			final var user = new CacheUser();
+			user.setId("user-" + i);
+			user.setFirstName("First" + i);
+			user.setLastName("Last" + i);
+			user.setCompany(companies.get(i % companies.size()));
+			users.add(persist(user));
+			for (var g = 0; g < 3; g++) {
+				final var membership = new CacheMembership();
+				membership.setUser(user);
+				membership.setGroup(groups.get(random.nextInt(groups.size())));
+				persist(membership);
+			}
+		}
+	}
+
+	/**
+	 * Nodes in three levels: service, tool, instance.
+	 */
+	private void generateNodes() {
+		Node service = null;
+		Node tool = null;
+		for (var i = 0; i < nodeCount; i++) {
+			final var node = new Node();
+			if (i % 100 == 0) {
+				node.setId("service:s" + i);
+				service = node;
+			} else if (i % 10 == 0) {
+				node.setId(service.getId() + ":t" + i);
+				node.setRefined(service);
+				tool = node;
+			} else {
+				final var parent = tool == null ? service : tool;
+				node.setId(parent.getId() + ":i" + i);
+				node.setRefined(parent);
+			}
+			node.setName(node.getId());
+			nodes.add(persist(node));
+		}
+	}
+
+	/**
+	 * Projects linked to a random group, and subscribing two random nodes.
+	 */
+	private void generateProjects() {
+		for (var i = 0; i < projectCount; i++) {
+			final var project = new Project();
+			project.setName("Project " + i);
+			project.setPkey("project-" + i);
+			project.setTeamLeader(users.get(random.nextInt(users.size())).getId());
+			projects.add(persist(project));
+			final var projectGroup = new CacheProjectGroup();
+			projectGroup.setProject(project);
+			projectGroup.setGroup(groups.get(random.nextInt(groups.size())));
+			persist(projectGroup);
+			for (var s = 0; s < 2; s++) {
+				final var subscription = new Subscription();
+				subscription.setProject(project);
+				subscription.setNode(nodes.get(random.nextInt(nodes.size())));
+				persist(subscription);
+			}
+		}
+	}
+
+	/**
+	 * Messages with a random target type and target.
+	 */
+	private void generateMessages() {
+		final var types = MessageTargetType.values();
+		for (var i = 0; i < messageCount; i++) {
+			final var message = new Message();
+			final var type = types[random.nextInt(types.length)];
+			message.setTargetType(type);
+			message.setTarget(switch (type) {
+			case USER -> users.get(random.nextInt(users.size())).getId();
+			case GROUP -> groups.get(random.nextInt(groups.size())).getId();
+			case COMPANY -> companies.get(random.nextInt(companies.size())).getId();
+			case PROJECT -> projects.get(random.nextInt(projects.size())).getPkey();
+			case NODE -> nodes.get(random.nextInt(nodes.size())).getId();
+			});
+			message.setValue("Message " + i + " for " + message.getTarget());
+			persist(message);
+		}
+	}
+
+	private <T> T persist(final T entity) {
+		em.persist(entity);
+		if (++pending % BATCH_SIZE == 0) {
+			flush();
+		}
+		return entity;
+	}
+
+	/**
+	 * Flush the pending entities and detach them to keep the persistence context small. The generated entities are
+	 * only used as references afterwards.
+	 */
+	private void flush() {
+		em.flush();
+		em.clear();
+	}
+}
@@ -0,0 +1,99 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+
+/**
+ * {@link MessageAudienceCache} test cases.
+ */
+class MessageAudienceCacheTest {
+
+	private MessageAudienceCache cache;
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@BeforeEach
+	void prepare() {
+		cache = new MessageAudienceCache();
+		cache.configuration = mock(ConfigurationResource.class);
+		when(cache.configuration.get(MessageAudienceCache.CONF_TTL, MessageAudienceCache.DEFAULT_TTL)).thenReturn(60);
+	}
+
+	private long count() {
+		calls.incrementAndGet();
+		return 3;
+	}
+
+	@Test
+	void get() {
+		Assertions.assertEquals(3, cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count));
+		Assertions.assertEquals(3, cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count));
+		Assertions.assertEquals(1, calls.get());
+
+		// Another target
+		cache.get(MessageTargetType.COMPANY, "ligoj-jupiter", this::count);
+		Assertions.assertEquals(2, calls.get());
+	}
+
+	@Test
+	void evictAll() {
+		cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count);
+		cache.evictAll();
+		cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count);
+		Assertions.assertEquals(2, calls.get());
+	}
+
+	@Test
+	void getNoCache() {
+		when(cache.configuration.get(MessageAudienceCache.CONF_TTL, MessageAudienceCache.DEFAULT_TTL)).thenReturn(0);
+		cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count);
+		cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count);
+		Assertions.assertEquals(2, calls.get());
+	}
+
+	@Test
+	void getError() {
+		Assertions.assertThrows(IllegalStateException.class, () -> cache.get(MessageTargetType.GROUP, "ligoj-jupiter", () -> {
+			throw new IllegalStateException();
+		}));
+
+		// Errors are not cached
+		Assertions.assertEquals(3, cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count));
+	}
+
+	@Test
+	void getConcurrent() throws Exception {
+		final var started = new CountDownLatch(1);
+		final var release = new CountDownLatch(1);
+		final var first = CompletableFuture.supplyAsync(() -> cache.get(MessageTargetType.GROUP, "ligoj-jupiter", () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return count();
+		}));
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		// Same target while the first computation is running
+		final var second = CompletableFuture.supplyAsync(() -> cache.get(MessageTargetType.GROUP, "ligoj-jupiter", this::count));
+		Thread.sleep(100);
+		Assertions.assertFalse(second.isDone());
+		release.countDown();
+		Assertions.assertEquals(3, first.get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(3, second.get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, calls.get());
+	}
+}
@@ -0,0 +1,80 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link MessageDataSourceRouting} test cases, with two H2 instances.
+ */
+class MessageDataSourceRoutingTest {
+
+	private DataSource primary;
+
+	private DataSource replica;
+
+	private DefaultListableBeanFactory beanFactory;
+
+	private MessageDataSourceRouting routing;
+
+	@BeforeEach
+	void init() throws SQLException {
+		primary = newInstance("primary");
+		replica = newInstance("replica");
+		beanFactory = new DefaultListableBeanFactory();
+		routing = new MessageDataSourceRouting();
+		routing.setBeanFactory(beanFactory);
+	}
+
+	private static DataSource newInstance(final String name) throws SQLException {
+		final var dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:inbox-" + name + ";DB_CLOSE_DELAY=-1");
+		try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE IF NOT EXISTS INSTANCE (NAME VARCHAR(10))");
+			statement.execute("DELETE FROM INSTANCE");
+			statement.execute("INSERT INTO INSTANCE VALUES ('" + name + "')");
+		}
+		return dataSource;
+	}
+
+	private static String instance(final DataSource dataSource, final boolean readOnly) {
+		final var template = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		template.setReadOnly(readOnly);
+		return template.execute(s -> new JdbcTemplate(dataSource).queryForObject("SELECT NAME FROM INSTANCE", String.class));
+	}
+
+	@Test
+	void route() {
+		beanFactory.registerSingleton(MessageDataSourceRouting.REPLICA, replica);
+		final var dataSource = (DataSource) routing.postProcessAfterInitialization(primary, MessageDataSourceRouting.PRIMARY);
+		Assertions.assertEquals("replica", MessageDataSourceRouting.replica(() -> instance(dataSource, true)));
+		Assertions.assertEquals("primary", MessageDataSourceRouting.replica(() -> instance(dataSource, false)));
+
+		// Read-only transactions out of the inbox
+		Assertions.assertEquals("primary", instance(dataSource, true));
+		Assertions.assertEquals("primary", instance(dataSource, false));
+
+		// Outside a transaction
+		Assertions.assertEquals("primary", new JdbcTemplate(dataSource).queryForObject("SELECT NAME FROM INSTANCE", String.class));
+	}
+
+	@Test
+	void routeNoReplica() {
+		Assertions.assertSame(primary, routing.postProcessAfterInitialization(primary, MessageDataSourceRouting.PRIMARY));
+	}
+
+	@Test
+	void routeOtherBean() {
+		beanFactory.registerSingleton(MessageDataSourceRouting.REPLICA, replica);
+		Assertions.assertSame(replica, routing.postProcessAfterInitialization(replica, MessageDataSourceRouting.REPLICA));
+	}
+}
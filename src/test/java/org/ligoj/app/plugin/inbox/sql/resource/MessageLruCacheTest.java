@@ -0,0 +1,62 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link MessageLruCache} test cases.
+ */
+class MessageLruCacheTest {
+
+	@Test
+	void get() {
+		final var cache = new MessageLruCache<Integer>(10);
+		cache.put("user1", 1, 100);
+		Assertions.assertEquals(1, cache.get("user1", 99));
+		Assertions.assertNull(cache.get("user1", 100));
+		Assertions.assertEquals(100, cache.getEntry("user1").expire());
+		Assertions.assertNull(cache.get("user2", 0));
+	}
+
+	@Test
+	void update() {
+		final var cache = new MessageLruCache<Integer>(10);
+		cache.put("user1", 1, 100);
+		cache.update("user1", c -> c + 1);
+		cache.update("user2", c -> c + 1);
+		Assertions.assertEquals(2, cache.get("user1", 0));
+		Assertions.assertEquals(100, cache.getEntry("user1").expire());
+		Assertions.assertNull(cache.getEntry("user2"));
+	}
+
+	@Test
+	void evictEldest() {
+		final var cache = new MessageLruCache<Integer>(2);
+		cache.put("user1", 1, 100);
+		cache.put("user2", 2, 100);
+
+		// Access the first entry, the second one is now the least recently used
+		cache.get("user1", 0);
+		cache.put("user3", 3, 100);
+		Assertions.assertEquals(1, cache.get("user1", 0));
+		Assertions.assertNull(cache.get("user2", 0));
+		Assertions.assertEquals(3, cache.get("user3", 0));
+	}
+
+	@Test
+	void remove() {
+		final var cache = new MessageLruCache<Integer>(10);
+		final Integer value = 1000;
+		cache.put("user1", value, 100);
+		cache.put("user2", 2, 100);
+		cache.remove("user1", 1001);
+		Assertions.assertEquals(1000, cache.get("user1", 0));
+		cache.remove("user1", value);
+		Assertions.assertNull(cache.get("user1", 0));
+		cache.remove("user2");
+		Assertions.assertNull(cache.get("user2", 0));
+		cache.put("user3", 3, 100);
+		cache.clear();
+		Assertions.assertNull(cache.get("user3", 0));
+	}
+}
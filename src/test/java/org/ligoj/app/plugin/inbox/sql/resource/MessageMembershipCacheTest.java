@@ -0,0 +1,71 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+
+/**
+ * {@link MessageMembershipCache} test cases.
+ */
+class MessageMembershipCacheTest {
+
+	private MessageMembershipCache cache;
+
+	@BeforeEach
+	void prepare() {
+		cache = new MessageMembershipCache();
+		cache.configuration = mock(ConfigurationResource.class);
+		cache.repository = mock(MessageRepository.class);
+		when(cache.configuration.get(MessageMembershipCache.CONF_TTL, MessageMembershipCache.DEFAULT_TTL)).thenReturn(60);
+		when(cache.repository.findGroups("user1")).thenReturn(List.of("ligoj-jupiter"));
+		when(cache.repository.findCompanies("user1")).thenReturn(List.of("ligoj"));
+		when(cache.repository.findProjects("user1")).thenReturn(List.of("jupiter"));
+		when(cache.repository.findSubscribedNodes("user1")).thenReturn(List.of("service:build:jenkins:bpr"));
+	}
+
+	@Test
+	void get() {
+		final var membership = cache.get("user1");
+		Assertions.assertEquals(List.of("ligoj-jupiter"), membership.groups());
+		Assertions.assertEquals(List.of("ligoj"), membership.companies());
+		Assertions.assertEquals(List.of("jupiter"), membership.projects());
+		Assertions.assertEquals(Set.of("service", "service:build", "service:build:jenkins", "service:build:jenkins:bpr"),
+				membership.nodes());
+
+		// Served from the cache
+		Assertions.assertSame(membership, cache.get("user1"));
+		verify(cache.repository, times(1)).findGroups("user1");
+	}
+
+	@Test
+	void evictAll() {
+		cache.get("user1");
+		cache.evictAll();
+		cache.get("user1");
+		verify(cache.repository, times(2)).findGroups("user1");
+	}
+
+	@Test
+	void getNoCache() {
+		when(cache.configuration.get(MessageMembershipCache.CONF_TTL, MessageMembershipCache.DEFAULT_TTL)).thenReturn(0);
+		cache.get("user1");
+		cache.get("user1");
+		verify(cache.repository, times(2)).findGroups("user1");
+	}
+
+	@Test
+	void withAncestors() {
+		Assertions.assertEquals(Set.of("service", "service:bt"), MessageMembershipCache.withAncestors(List.of("service:bt", "service")));
+		Assertions.assertEquals(Set.of(), MessageMembershipCache.withAncestors(List.of()));
+	}
+}
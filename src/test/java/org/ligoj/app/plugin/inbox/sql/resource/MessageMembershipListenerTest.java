@@ -0,0 +1,171 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.iam.model.CacheCompany;
+import org.ligoj.app.iam.model.CacheGroup;
+import org.ligoj.app.iam.model.CacheMembership;
+import org.ligoj.app.iam.model.CacheProjectGroup;
+import org.ligoj.app.iam.model.CacheUser;
+import org.ligoj.app.model.Node;
+import org.ligoj.app.model.Project;
+import org.ligoj.app.model.Subscription;
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.ArgumentMatchers;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * {@link MessageMembershipListener} test cases.
+ */
+class MessageMembershipListenerTest {
+
+	private MessageMembershipListener listener;
+
+	@BeforeEach
+	void prepare() {
+		listener = new MessageMembershipListener();
+		listener.configuration = mock(ConfigurationResource.class);
+		when(listener.configuration.get(MessageMembershipListener.CONF_DELAY, MessageMembershipListener.DEFAULT_DELAY)).thenReturn(0);
+		listener.resource = mock(MessageResource.class);
+		listener.nodeAncestors = mock(MessageNodeAncestors.class);
+		listener.transactionManager = mock(PlatformTransactionManager.class);
+		listener.afterPropertiesSet();
+	}
+
+	@Test
+	void changedUsers() {
+		final var user = new CacheUser();
+		user.setId("user1");
+		listener.changed(user);
+		final var membership = new CacheMembership();
+		final var user2 = new CacheUser();
+		user2.setId("user2");
+		membership.setUser(user2);
+		listener.changed(membership);
+		listener.run();
+		verify(listener.resource).refresh(Set.of("user1", "user2"));
+	}
+
+	@Test
+	void changedGroup() {
+		final var user = new CacheUser();
+		user.setId("user1");
+		listener.changed(user);
+		listener.changed(new CacheGroup());
+		listener.run();
+		verify(listener.resource).refresh(null);
+
+		// The next changes are gathered again
+		listener.changed(user);
+		listener.run();
+		verify(listener.resource).refresh(Set.of("user1"));
+	}
+
+	@Test
+	void changedCompany() {
+		listener.changed(new CacheCompany());
+		listener.run();
+		verify(listener.resource).refresh(null);
+	}
+
+	@Test
+	void changedProjectGroup() {
+		listener.changed(new CacheProjectGroup());
+		listener.run();
+		verify(listener.resource).refresh(null);
+	}
+
+	@Test
+	void changedProject() {
+		listener.changed(new Project());
+		listener.run();
+		verify(listener.resource).refresh(null);
+	}
+
+	@Test
+	void changedSubscription() {
+		listener.changed(new Subscription());
+		listener.run();
+		verify(listener.resource).refresh(null);
+		verify(listener.nodeAncestors, never()).refresh();
+	}
+
+	@Test
+	void changedAll() {
+		listener.changedAll();
+		listener.run();
+		verify(listener.resource).refresh(null);
+	}
+
+	@Test
+	void changedAllCommitted() {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			listener.changedAll();
+			listener.run();
+			verify(listener.resource, never()).refresh(ArgumentMatchers.any());
+
+			// Synchronized once committed
+			TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		listener.run();
+		verify(listener.resource).refresh(null);
+	}
+
+	@Test
+	void requiresPostCommitHandling() {
+		for (final var type : List.of(CacheUser.class, CacheMembership.class, CacheGroup.class, CacheCompany.class, CacheProjectGroup.class,
+				Project.class, Subscription.class, Node.class)) {
+			final var persister = mock(EntityPersister.class);
+			doReturn(type).when(persister).getMappedClass();
+			Assertions.assertTrue(listener.requiresPostCommitHandling(persister), type.getSimpleName());
+		}
+		final var persister = mock(EntityPersister.class);
+		doReturn(Message.class).when(persister).getMappedClass();
+		Assertions.assertFalse(listener.requiresPostCommitHandling(persister));
+	}
+
+	@Test
+	void changedNode() {
+		listener.changed(new Node());
+		listener.run();
+		verify(listener.nodeAncestors).refresh();
+		verify(listener.resource, never()).refresh(ArgumentMatchers.any());
+	}
+
+	@Test
+	void changedNodeAndGroup() {
+		listener.changed(new Node());
+		listener.changed(new CacheGroup());
+		listener.run();
+
+		// The full synchronization includes the node ancestors
+		verify(listener.nodeAncestors, never()).refresh();
+		verify(listener.resource).refresh(null);
+	}
+
+	@Test
+	void runError() {
+		doThrow(new IllegalStateException()).when(listener.resource).refresh(null);
+		listener.changed(new CacheGroup());
+		listener.run();
+		listener.destroy();
+	}
+}
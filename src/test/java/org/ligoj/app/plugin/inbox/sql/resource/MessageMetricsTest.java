@@ -0,0 +1,51 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * {@link MessageMetrics} test cases.
+ */
+class MessageMetricsTest {
+
+	private MessageMetrics metrics;
+
+	@BeforeEach
+	void prepare() {
+		metrics = new MessageMetrics();
+		metrics.registry = new SimpleMeterRegistry();
+	}
+
+	@Test
+	void time() {
+		Assertions.assertEquals(3, metrics.time("audience", MessageTargetType.GROUP, () -> 3));
+		metrics.run("refresh", null, () -> {
+			// Nothing to do
+		});
+		Assertions.assertEquals(1, metrics.registry.get("ligoj.inbox.request").tag("endpoint", "audience").tag("type", "GROUP").timer().count());
+		Assertions.assertEquals(1, metrics.registry.get("ligoj.inbox.request").tag("endpoint", "refresh").tag("type", "none").timer().count());
+	}
+
+	@Test
+	void query() {
+		metrics.query("MessageRepository.findMy", 2000000);
+		final var timer = metrics.registry.get("ligoj.inbox.query").tag("query", "MessageRepository.findMy").timer();
+		Assertions.assertEquals(1, timer.count());
+		Assertions.assertEquals(2, timer.totalTime(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void count() {
+		metrics.count("xss.rejected", MessageTargetType.USER);
+		metrics.count("xss.rejected", MessageTargetType.USER);
+		metrics.record("targets.resolved", 4);
+		Assertions.assertEquals(2, metrics.registry.get("ligoj.inbox.xss.rejected").tag("type", "USER").counter().count());
+		Assertions.assertEquals(4, metrics.registry.get("ligoj.inbox.targets.resolved").summary().totalAmount());
+	}
+}
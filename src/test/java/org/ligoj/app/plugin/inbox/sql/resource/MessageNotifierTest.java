@@ -0,0 +1,149 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+
+/**
+ * {@link MessageNotifier} test cases.
+ */
+class MessageNotifierTest {
+
+	private MessageNotifier notifier;
+
+	private final Sse sse = mock(Sse.class, RETURNS_DEEP_STUBS);
+
+	@BeforeEach
+	void prepare() {
+		notifier = new MessageNotifier();
+		notifier.configuration = mock(ConfigurationResource.class);
+		notifier.repository = mock(MessageRepository.class);
+		when(notifier.configuration.get(MessageNotifier.CONF_HEARTBEAT, MessageNotifier.DEFAULT_HEARTBEAT)).thenReturn(3600);
+		when(notifier.configuration.get(MessageNotifier.CONF_THREADS, MessageNotifier.DEFAULT_THREADS)).thenReturn(4);
+		notifier.afterPropertiesSet();
+	}
+
+	@AfterEach
+	void destroy() {
+		notifier.destroy();
+	}
+
+	private SseEventSink newSink() {
+		final var sink = mock(SseEventSink.class);
+		doReturn(CompletableFuture.completedFuture(null)).when(sink).send(any());
+		return sink;
+	}
+
+	@Test
+	void publishSubscribers() {
+		final var sinks = new ArrayList<SseEventSink>();
+		for (var i = 0; i < 100; i++) {
+			final var sink = newSink();
+			sinks.add(sink);
+			notifier.subscribe("user" + i, sink, sse, null, 0);
+		}
+
+		// A failing sink does not affect the other ones
+		final var failing = mock(SseEventSink.class);
+		doReturn(CompletableFuture.completedFuture(null)).doThrow(new IllegalStateException()).when(failing).send(any());
+		notifier.subscribe("user0", failing, sse, null, 0);
+		Assertions.assertEquals(101, notifier.getConnected());
+
+		notifier.publish(null, 5);
+		// Counter on subscription, then the message event
+		sinks.forEach(s -> verify(s, timeout(1000).times(2)).send(any()));
+		verify(failing, timeout(1000)).close();
+		Assertions.assertEquals(100, notifier.getConnected());
+		Assertions.assertEquals(5, notifier.getLastId());
+	}
+
+	@Test
+	void publishCoalesced() throws InterruptedException {
+		notifier.destroy();
+		when(notifier.configuration.get(MessageNotifier.CONF_THREADS, MessageNotifier.DEFAULT_THREADS)).thenReturn(1);
+		notifier.afterPropertiesSet();
+		final var builder = mock(OutboundSseEvent.Builder.class, RETURNS_SELF);
+		final var events = mock(Sse.class);
+		when(events.newEventBuilder()).thenReturn(builder);
+		final var sink = newSink();
+		notifier.subscribe("user1", sink, events, null, 0);
+
+		// Block the first notification, the next changes are queued as a single one
+		final var entered = new CountDownLatch(1);
+		final var release = new CountDownLatch(1);
+		doAnswer(i -> {
+			entered.countDown();
+			release.await();
+			return CompletableFuture.completedFuture(null);
+		}).doReturn(CompletableFuture.completedFuture(null)).when(sink).send(any());
+		notifier.publish(List.of("user1"), 1);
+		Assertions.assertTrue(entered.await(1, TimeUnit.SECONDS));
+		for (var i = 2; i <= 50; i++) {
+			notifier.publish(List.of("user1", "user2"), i);
+		}
+		release.countDown();
+
+		verify(builder, timeout(1000)).data("50");
+		verify(builder).data("1");
+		// Counter on subscription, then two message events
+		verify(sink, times(3)).send(any());
+	}
+
+	@Test
+	void publishWaiters() {
+		final var completed = new AtomicInteger();
+		for (var i = 0; i < 20; i++) {
+			notifier.await("user" + i, () -> completed.incrementAndGet() > 0);
+		}
+
+		// A failing request is released without affecting the other ones
+		notifier.await("user0", () -> {
+			throw new IllegalStateException();
+		});
+		notifier.await("user1", () -> false);
+		Assertions.assertEquals(22, notifier.getWaiting());
+
+		notifier.publish(null, 5);
+		final var deadline = System.currentTimeMillis() + 1000;
+		while (notifier.getWaiting() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.onSpinWait();
+		}
+		Assertions.assertEquals(1, notifier.getWaiting());
+		Assertions.assertEquals(20, completed.get());
+	}
+
+	@Test
+	void publishNobody() {
+		notifier.publish(List.of("user1"), 5);
+		Assertions.assertEquals(5, notifier.getLastId());
+		Assertions.assertEquals(0, notifier.getWaiting());
+		Assertions.assertEquals(0, notifier.getConnected());
+		verify(notifier.repository, never()).findLastId();
+	}
+}
@@ -0,0 +1,66 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.iam.UserOrg;
+import org.ligoj.app.plugin.id.resource.UserOrgResource;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link MessageResource} test cases committing their transaction.
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+class MessageResourceCommitTest extends AbstractAppTest {
+
+	@Autowired
+	private MessageRepository repository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void createAllRejectedTarget() {
+		final var resource = new MessageResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		resource.userResource = mock(UserOrgResource.class);
+		final var user = new UserOrg();
+		user.setId("junit");
+		when(resource.userResource.findById("junit")).thenReturn(user);
+		resource.afterPropertiesSet();
+
+		// The rejected node must not roll back the valid message
+		final var results = new TransactionTemplate(transactionManager).execute(s -> resource
+				.createAll(List.of(newMessage(MessageTargetType.NODE, "service:any", "msg1"), newMessage(MessageTargetType.USER, "junit", "msg2"))));
+		try {
+			Assertions.assertNull(results.get(0).getId());
+			Assertions.assertEquals(Set.of("id"), results.get(0).getErrors().keySet());
+			Assertions.assertEquals("msg2", repository.findOne(results.get(1).getId()).getValue());
+		} finally {
+			new TransactionTemplate(transactionManager).executeWithoutResult(s -> repository.deleteAll());
+		}
+	}
+
+	private Message newMessage(final MessageTargetType targetType, final String target, final String value) {
+		final var message = new Message();
+		message.setTargetType(targetType);
+		message.setTarget(target);
+		message.setValue(value);
+		return message;
+	}
+}
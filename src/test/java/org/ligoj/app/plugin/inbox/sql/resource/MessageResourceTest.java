@@ -3,14 +3,22 @@ package org.ligoj.app.plugin.inbox.sql.resource;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.TimeoutHandler;
 import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.hibernate.Session;
 import org.ligoj.app.AbstractAppTest;
 import org.ligoj.app.iam.CompanyOrg;
 import org.ligoj.app.iam.GroupOrg;
+import org.ligoj.app.iam.IUserRepository;
+import org.ligoj.app.iam.IamProvider;
 import org.ligoj.app.iam.UserOrg;
 import org.ligoj.app.iam.model.*;
 import org.ligoj.app.model.*;
@@ -18,14 +26,25 @@ import org.ligoj.app.plugin.id.resource.CompanyResource;
 import org.ligoj.app.plugin.id.resource.ContainerWithScopeVo;
 import org.ligoj.app.plugin.id.resource.GroupResource;
 import org.ligoj.app.plugin.id.resource.UserOrgResource;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageNodeAncestorRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageReadRepository;
 import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
 import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.app.plugin.inbox.sql.model.MessageNodeAncestorId;
 import org.ligoj.app.plugin.inbox.sql.model.MessageRead;
 import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
 import org.ligoj.bootstrap.MatcherUtil;
 import org.ligoj.bootstrap.core.json.datatable.DataTableAttributes;
 import org.ligoj.bootstrap.core.validation.ValidationJsonException;
+import org.ligoj.bootstrap.model.system.SystemAuthorization;
+import org.ligoj.bootstrap.model.system.SystemAuthorization.AuthorizationType;
+import org.ligoj.bootstrap.model.system.SystemRole;
+import org.ligoj.bootstrap.model.system.SystemRoleAssignment;
+import org.ligoj.bootstrap.model.system.SystemUser;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
 import org.ligoj.bootstrap.resource.system.session.SessionSettings;
+import org.mockito.ArgumentCaptor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
@@ -34,10 +53,23 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -49,18 +81,48 @@ import static org.mockito.Mockito.when;
 @Transactional
 class MessageResourceTest extends AbstractAppTest {
 
+	@RegisterExtension
+	final SqlBudget budget = new SqlBudget();
+
 	@Autowired
 	private MessageResource resource;
 	@Autowired
 	private MessageRepository repository;
+	@Autowired
+	private MessageReadRepository messageReadRepository;
+	@Autowired
+	private MessageReadCursors cursors;
+	@Autowired
+	private MessageUnreadCache unreadCache;
+	@Autowired
+	private MessageMembershipCache membershipCache;
+	@Autowired
+	private MessageAudienceCache audienceCache;
+	@Autowired
+	private MessageMembershipListener membershipListener;
+	@Autowired
+	private MessageNotifier notifier;
+	@Autowired
+	private MessageMetrics metrics;
+	@Autowired
+	private MessageNodeAncestorRepository nodeAncestorRepository;
+	@Autowired
+	private MessageNodeAncestors nodeAncestors;
 
 	@BeforeEach
 	void prepare() throws IOException {
+		unreadCache.evictAll();
+		membershipCache.evictAll();
+		audienceCache.evictAll();
+
 		persistEntities("csv",
 				new Class<?>[]{Node.class, Parameter.class, Project.class, Subscription.class, ParameterValue.class,
 						Message.class, DelegateNode.class, DelegateOrg.class, CacheCompany.class, CacheUser.class,
 						CacheGroup.class, CacheMembership.class, CacheProjectGroup.class},
 				StandardCharsets.UTF_8);
+
+		// Built at startup, before the nodes of these tests
+		nodeAncestors.refresh();
 	}
 
 	@Test
@@ -221,6 +283,183 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertThrows(ForbiddenException.class, () -> mockUser().create(message));
 	}
 
+	@Test
+	void createAll() {
+		final var resource = mockUser();
+		final var results = resource.createAll(List.of(newMessage(MessageTargetType.USER, "admin-test", "msg1"),
+				newMessage(MessageTargetType.USER, "admin-test", "<script>alert()</script>"),
+				newMessage(MessageTargetType.NODE, "service:any", "msg3"), newMessage(MessageTargetType.USER, "junit", "msg4")));
+		Assertions.assertEquals(4, results.size());
+		Assertions.assertEquals("msg1", repository.findOne(results.get(0).getId()).getValue());
+		Assertions.assertNull(results.get(0).getErrors());
+		Assertions.assertNull(results.get(1).getId());
+		Assertions.assertEquals(Set.of("value"), results.get(1).getErrors().keySet());
+		Assertions.assertNull(results.get(2).getId());
+		Assertions.assertEquals(Set.of("id"), results.get(2).getErrors().keySet());
+		Assertions.assertEquals("msg4", repository.findOne(results.get(3).getId()).getValue());
+
+		// Each distinct target is checked once
+		verify(resource.userResource, times(1)).findById("admin-test");
+	}
+
+	@Test
+	void createAllValidation() {
+		final var resource = mockUser();
+		final var results = resource.createAll(List.of(newMessage(MessageTargetType.USER, "admin-test", "msg1"),
+				newMessage(MessageTargetType.USER, "admin-test", " "), newMessage(MessageTargetType.USER, "junit", "x".repeat(501)),
+				newMessage(MessageTargetType.GROUP, "unknown", "msg4"), newMessage(MessageTargetType.USER, "junit", "msg5")));
+		Assertions.assertEquals("msg1", repository.findOne(results.get(0).getId()).getValue());
+		Assertions.assertNull(results.get(1).getId());
+		Assertions.assertEquals(Set.of("value"), results.get(1).getErrors().keySet());
+		Assertions.assertNull(results.get(2).getId());
+		Assertions.assertEquals(Set.of("value"), results.get(2).getErrors().keySet());
+		Assertions.assertNull(results.get(3).getId());
+		Assertions.assertNotNull(results.get(3).getErrors());
+
+		// The rejected target does not prevent the commit of the other messages
+		Assertions.assertEquals("msg5", repository.findOne(results.get(4).getId()).getValue());
+	}
+
+	@Test
+	void createAllInvalid() {
+		final var results = resource.createAll(List.of(newMessage(MessageTargetType.NODE, "service:any", "msg")));
+		Assertions.assertNull(results.getFirst().getId());
+	}
+
+	@Test
+	void createAllTooMany() {
+		final var messages = Collections.nCopies(MessageResource.MAX_BATCH + 1, newMessage(MessageTargetType.USER, "junit", "msg"));
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class, () -> resource.createAll(messages)), "messages",
+				"Size");
+	}
+
+	@Test
+	void createValidityInvalid() {
+		final var message = newMessage(MessageTargetType.USER, "junit", "msg");
+		message.setValidFrom(new Date());
+		message.setValidUntil(message.getValidFrom());
+		MatcherUtil.assertThrows(Assertions.assertThrows(ValidationJsonException.class, () -> mockUser().create(message)), "validUntil",
+				"Future");
+		Assertions.assertEquals(Set.of("validUntil"), mockUser().createAll(List.of(message)).getFirst().getErrors().keySet());
+	}
+
+	@Test
+	void createScheduled() {
+		final var message = newMessage(MessageTargetType.USER, "junit", "msg");
+		message.setValidFrom(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+		final var id = mockUser().create(message);
+		Assertions.assertEquals(message.getValidFrom(), repository.findOne(id).getValidFrom());
+		Assertions.assertEquals(8, findMyJunit().size());
+	}
+
+	@Test
+	void findMyValidity() {
+		final var messages = repository.findAll().stream().filter(m -> "junit".equals(m.getTarget())).toList();
+		setValidity(messages.get(0).getId(), "validFrom", TimeUnit.HOURS.toMillis(1));
+		setValidity(messages.get(1).getId(), "validUntil", -TimeUnit.HOURS.toMillis(1));
+		setValidity(messages.get(2).getId(), "validUntil", TimeUnit.HOURS.toMillis(1));
+		final var visible = findMyJunit().stream().map(MessageVo::getId).toList();
+		Assertions.assertEquals(6, visible.size());
+		Assertions.assertFalse(visible.contains(messages.get(0).getId()));
+		Assertions.assertFalse(visible.contains(messages.get(1).getId()));
+		Assertions.assertTrue(visible.contains(messages.get(2).getId()));
+	}
+
+	@Test
+	void validityCheck() {
+		final var validity = new MessageValidity();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(validity);
+		final var now = System.currentTimeMillis();
+		final var messages = repository.findAll();
+		setScheduled(messages.get(0).getId(), TimeUnit.HOURS.toMillis(1));
+		setValidity(messages.get(1).getId(), "validUntil", TimeUnit.HOURS.toMillis(1));
+		setValidity(messages.get(2).getId(), "validUntil", TimeUnit.HOURS.toMillis(3));
+		Assertions.assertEquals(2, validity.check(new Date(now + TimeUnit.HOURS.toMillis(2))));
+
+		// Only the changes since the previous check
+		Assertions.assertEquals(0, validity.check(new Date(now + TimeUnit.HOURS.toMillis(2))));
+		Assertions.assertEquals(1, validity.check(new Date(now + TimeUnit.HOURS.toMillis(4))));
+	}
+
+	@Test
+	void validityActivateAfterCursor() {
+		final var validity = new MessageValidity();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(validity);
+		final var message = newMessage(MessageTargetType.USER, "junit", "scheduled");
+		message.setValidFrom(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+		final var id = mockUser().create(message);
+
+		// A newer message is read: the cursor is beyond the scheduled message
+		mockUser().create(newMessage(MessageTargetType.USER, "junit", "newer"));
+		findMyJunit();
+		Assertions.assertEquals(0, resource.countUnread());
+
+		// The activated message is newer than the cursor
+		setValidity(id, "validFrom", 0);
+		Assertions.assertEquals(1, validity.check(new Date()));
+		Assertions.assertNull(repository.findOne(id));
+		Assertions.assertEquals(1, resource.countUnread());
+		final var activated = findMyJunit().stream().filter(m -> "scheduled".equals(m.getValue())).findFirst().orElseThrow();
+		Assertions.assertTrue(activated.getId() > id);
+		Assertions.assertTrue(activated.isUnread());
+		Assertions.assertEquals(DEFAULT_USER, activated.getCreatedBy());
+		Assertions.assertEquals(0, resource.countUnread());
+	}
+
+	@Test
+	void validityActivateMissed() {
+		// Started while no node was running
+		final var id = repository.findAll().getFirst().getId();
+		setScheduled(id, -TimeUnit.DAYS.toMillis(1));
+		final var validity = new MessageValidity();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(validity);
+		Assertions.assertEquals(1, validity.check(new Date()));
+		Assertions.assertNull(repository.findOne(id));
+		Assertions.assertEquals(0, validity.check(new Date()));
+	}
+
+	@Test
+	void validityActivateOnce() {
+		final var id = repository.findAll().getFirst().getId();
+		setScheduled(id, 0);
+
+		// The second node finds the message already activated
+		Assertions.assertEquals(1, resource.activate(List.of(id)).size());
+		Assertions.assertEquals(0, resource.activate(List.of(id)).size());
+		Assertions.assertEquals(1, repository.findAll().stream().filter(m -> Boolean.FALSE.equals(m.getScheduled())).count());
+	}
+
+	@Test
+	void archiveExpired() {
+		setValidity(repository.findAll().getFirst().getId(), "validUntil", -TimeUnit.HOURS.toMillis(1));
+		Assertions.assertEquals(1, newRetention(0, 0).archive());
+	}
+
+	private void setScheduled(final int id, final long offset) {
+		em.createQuery("UPDATE Message SET scheduled = TRUE WHERE id = :id").setParameter("id", id).executeUpdate();
+		setValidity(id, "validFrom", offset);
+	}
+
+	private void setValidity(final int id, final String property, final long offset) {
+		em.createQuery("UPDATE Message SET " + property + " = :date WHERE id = :id")
+				.setParameter("date", new Date(System.currentTimeMillis() + offset)).setParameter("id", id).executeUpdate();
+		em.clear();
+	}
+
+	private List<MessageVo> findMyJunit() {
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+		return resource.findMy(uriInfo).getData();
+	}
+
+	private Message newMessage(final MessageTargetType targetType, final String target, final String value) {
+		final var message = new Message();
+		message.setTargetType(targetType);
+		message.setTarget(target);
+		message.setValue(value);
+		return message;
+	}
+
 	private MessageResource mockUser() {
 		final var resource = new MessageResource();
 		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
@@ -261,7 +500,7 @@ class MessageResourceTest extends AbstractAppTest {
 		messageRead.setMessage(em.createQuery("SELECT id FROM Message WHERE targetType= :type", Integer.class)
 				.setParameter("type", MessageTargetType.PROJECT).getSingleResult() + 2);
 		em.persist(messageRead);
-		Assertions.assertEquals(0, repository.countUnread("admin-test"));
+		Assertions.assertEquals(0, repository.countSince("admin-test", membershipCache.get("admin-test"), messageRead.getMessage()));
 
 		final var message = new Message();
 		message.setTarget("admin-test");
@@ -270,7 +509,7 @@ class MessageResourceTest extends AbstractAppTest {
 		final int id = mockUser().create(message);
 		Assertions.assertTrue(id > 0);
 		Assertions.assertEquals("msg <i class=\"fas fa-smile\"></i>", repository.findOne(id).getValue());
-		Assertions.assertEquals(1, repository.countUnread("admin-test"));
+		Assertions.assertEquals(1, repository.countSince("admin-test", membershipCache.get("admin-test"), messageRead.getMessage()));
 	}
 
 	@Test
@@ -382,6 +621,72 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(2, resource.findMy(uriInfo).getData().size());
 	}
 
+	@Test
+	void findAllSearchIndex() {
+		final var indexed = new MessageResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(indexed);
+		final var index = new MessageSearchIndex();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(index);
+		index.configuration = mock(ConfigurationResource.class);
+		when(index.configuration.get(MessageSearchIndex.CONF_ENABLED, "false")).thenReturn("true");
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_CANDIDATES, MessageSearchIndex.DEFAULT_MAX_CANDIDATES)).thenReturn(1000);
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_MESSAGES, MessageSearchIndex.DEFAULT_MAX_MESSAGES)).thenReturn(1000);
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_AGE, MessageSearchIndex.DEFAULT_MAX_AGE)).thenReturn(300);
+		index.rebuild();
+		indexed.search = index;
+
+		// Same results with and without the index
+		for (final var criteria : new String[] { "Message13", "Message1", "jupiter", "GROUP", "none" }) {
+			final UriInfo uriInfo = newUriInfo();
+			uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+			uriInfo.getQueryParameters().putSingle(DataTableAttributes.SEARCH, criteria);
+			Assertions.assertEquals(resource.findAll(uriInfo).getData().stream().map(MessageVo::getId).toList(),
+					indexed.findAll(uriInfo).getData().stream().map(MessageVo::getId).toList(), criteria);
+			Assertions.assertEquals(resource.findMy(uriInfo).getData().stream().map(MessageVo::getId).toList(),
+					indexed.findMy(uriInfo).getData().stream().map(MessageVo::getId).toList(), criteria);
+		}
+		final UriInfo uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.SEARCH, "Message13");
+		Assertions.assertEquals(3, indexed.findAll(uriInfo).getData().size());
+	}
+
+	@Test
+	void findMyUserCacheOnce() {
+		final var resource = new MessageResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		final var userRepository = mock(IUserRepository.class);
+		final var provider = mock(IamProvider.class, RETURNS_DEEP_STUBS);
+		when(provider.getConfiguration().getUserRepository()).thenReturn(userRepository);
+		resource.iamProvider = new IamProvider[] { provider };
+		Assertions.assertFalse(resource.isUserCacheReady());
+
+		// The user cache is loaded only by the first request
+		resource.findMy(newUriInfo());
+		resource.countUnread();
+		resource.findAll(newUriInfo());
+		Assertions.assertTrue(resource.isUserCacheReady());
+		verify(userRepository, times(1)).findAll();
+	}
+
+	@Test
+	void refreshUserCache() {
+		final var resource = new MessageResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		final var userRepository = mock(IUserRepository.class);
+		final var provider = mock(IamProvider.class, RETURNS_DEEP_STUBS);
+		when(provider.getConfiguration().getUserRepository()).thenReturn(userRepository);
+		resource.iamProvider = new IamProvider[] { provider };
+
+		// Not loaded, nothing to reload
+		resource.refresh(Set.of("user1"));
+		verify(userRepository, never()).findAll();
+
+		// Loaded by the first request, then reloaded in the background after an IAM change
+		resource.countUnread();
+		resource.refresh(Set.of("user1"));
+		verify(userRepository, timeout(1000).times(2)).findAll();
+	}
+
 	@Test
 	void findMy() {
 		final UriInfo uriInfo = newUriInfo();
@@ -398,6 +703,146 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(2, resource.findMy(uriInfo).getData().size());
 	}
 
+	private MessageResource mockRecipient() {
+		final var resource = new MessageResource();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(resource);
+		resource.configuration = mock(ConfigurationResource.class);
+		when(resource.configuration.get(MessageResource.CONF_RECIPIENT, "false")).thenReturn("true");
+		resource.afterPropertiesSet();
+		resource.refresh(null);
+		em.flush();
+		em.clear();
+		return resource;
+	}
+
+	@Test
+	void refreshUsers() {
+		final var resource = mockRecipient();
+		final var count = em.createQuery("SELECT COUNT(r) FROM MessageRecipient r WHERE r.login = :user", Long.class);
+		final long recipients = count.setParameter("user", DEFAULT_USER).getSingleResult();
+		em.createQuery("DELETE FROM MessageRecipient WHERE login = :user").setParameter("user", DEFAULT_USER).executeUpdate();
+		resource.refresh(List.of(DEFAULT_USER));
+		Assertions.assertEquals(recipients, count.setParameter("user", DEFAULT_USER).getSingleResult());
+	}
+
+	@Test
+	void refreshNotAdmin() {
+		Assertions.assertThrows(ForbiddenException.class, () -> resource.refresh());
+	}
+
+	@Test
+	void refreshAdmin() {
+		var user = em.find(SystemUser.class, DEFAULT_USER);
+		if (user == null) {
+			user = new SystemUser();
+			user.setLogin(DEFAULT_USER);
+			em.persist(user);
+		}
+		final var role = new SystemRole();
+		role.setName("inbox-admin");
+		em.persist(role);
+		final var authorization = new SystemAuthorization();
+		authorization.setRole(role);
+		authorization.setPattern(".*");
+		authorization.setType(AuthorizationType.API);
+		em.persist(authorization);
+		final var assignment = new SystemRoleAssignment();
+		assignment.setRole(role);
+		assignment.setUser(user);
+		em.persist(assignment);
+		nodeAncestorRepository.deleteAllInBatch();
+
+		resource.refresh();
+		Assertions.assertTrue(nodeAncestorRepository.existsById(new MessageNodeAncestorId("service:build:jenkins", "service")));
+	}
+
+	@Test
+	void findMyRecipient() {
+		final var resource = mockRecipient();
+		final UriInfo uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+		final var messages = resource.findMy(uriInfo).getData();
+		Assertions.assertEquals(8, messages.size());
+		Assertions.assertEquals("junit", messages.get(0).getTarget());
+		Assertions.assertEquals("junit", messages.get(7).getTarget());
+	}
+
+	@Test
+	void findMyRecipientNode() {
+		initSpringSecurityContext("fdaugan");
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+		Assertions.assertEquals(6, mockRecipient().findMy(uriInfo).getData().size());
+	}
+
+	@Test
+	void countUnreadRecipient() {
+		initSpringSecurityContext("admin-test");
+		prepareUnreadPosition();
+		Assertions.assertEquals(3, mockRecipient().countUnread());
+	}
+
+	@Test
+	void createRecipient() {
+		final var resource = mockRecipient();
+		final var message = new Message();
+		message.setTarget("ligoj-jupiter");
+		message.setTargetType(MessageTargetType.PROJECT);
+		initSpringSecurityContext("fdaugan");
+		final var messageRead = new MessageRead();
+		messageRead.setId("admin-test");
+		messageRead.setMessage(Integer.MAX_VALUE - 1);
+		em.persist(messageRead);
+		message.setValue("msg");
+		final int id = resource.create(message);
+		Assertions.assertEquals(2, em.createQuery("SELECT COUNT(r) FROM MessageRecipient r WHERE r.message = :id", Long.class)
+				.setParameter("id", id).getSingleResult());
+		Assertions.assertEquals(0, repository.countRecipientSince("admin-test", messageRead.getMessage()));
+		messageRead.setMessage(id - 1);
+		em.flush();
+		Assertions.assertEquals(1, repository.countRecipientSince("admin-test", messageRead.getMessage()));
+
+		// Recipients are deleted with the message
+		initSpringSecurityContext(DEFAULT_USER);
+		resource.delete(id);
+		em.flush();
+		Assertions.assertEquals(0, em.createQuery("SELECT COUNT(r) FROM MessageRecipient r WHERE r.message = :id", Long.class)
+				.setParameter("id", id).getSingleResult());
+	}
+
+	@Test
+	void findMyBefore() {
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "3");
+		uriInfo.getQueryParameters().putSingle(MessageResource.PARAM_BEFORE, "");
+		final var first = (MessageTableItem) resource.findMy(uriInfo);
+		Assertions.assertEquals(3, first.getData().size());
+		Assertions.assertEquals(first.getData().get(2).getId(), first.getNext());
+		Assertions.assertTrue(first.getData().get(0).getId() > first.getData().get(1).getId());
+
+		uriInfo.getQueryParameters().putSingle(MessageResource.PARAM_BEFORE, String.valueOf(first.getNext()));
+		final var second = (MessageTableItem) resource.findMy(uriInfo);
+		Assertions.assertEquals(3, second.getData().size());
+		Assertions.assertTrue(second.getData().getFirst().getId() < first.getNext());
+
+		uriInfo.getQueryParameters().putSingle(MessageResource.PARAM_BEFORE, String.valueOf(second.getNext()));
+		final var last = (MessageTableItem) resource.findMy(uriInfo);
+		Assertions.assertEquals(2, last.getData().size());
+		Assertions.assertNull(last.getNext());
+		Assertions.assertEquals("junit", last.getData().getFirst().getTarget());
+	}
+
+	@Test
+	void findAllBefore() {
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+		uriInfo.getQueryParameters().putSingle(MessageResource.PARAM_BEFORE, "");
+		final var messages = (MessageTableItem) resource.findAll(uriInfo);
+		Assertions.assertEquals(17, messages.getData().size());
+		Assertions.assertEquals("user2", messages.getData().getFirst().getTarget());
+		Assertions.assertNull(messages.getNext());
+	}
+
 	@Test
 	void findMy2() {
 		initSpringSecurityContext("fdaugan");
@@ -416,6 +861,56 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertEquals("fdaugan", messages.get(0).getTarget());
 	}
 
+	@Test
+	void findMyMetrics() {
+		final var registry = metrics.registry;
+		metrics.registry = new SimpleMeterRegistry();
+		try {
+			resource.findMy(newUriInfo());
+			resource.findMy(newUriInfo());
+			Assertions.assertEquals(2, metrics.registry.get("ligoj.inbox.request").tag("endpoint", "findMy").timer().count());
+			Assertions.assertEquals(2, metrics.registry.get("ligoj.inbox.query").tag("query", "MessageRepository.findMy").timer().count());
+			Assertions.assertEquals(1, metrics.registry.get("ligoj.inbox.cursor.written").counter().count());
+			Assertions.assertEquals(1, metrics.registry.get("ligoj.inbox.cursor.skipped").counter().count());
+			Assertions.assertEquals(2, metrics.registry.get("ligoj.inbox.targets.resolved").summary().count());
+		} finally {
+			metrics.registry = registry;
+		}
+	}
+
+	@Test
+	void findMyNotManaged() {
+		em.flush();
+		em.clear();
+		Assertions.assertEquals(8, resource.findMy(newUriInfo()).getData().size());
+
+		// Projected rows, no message in the persistence context
+		Assertions.assertTrue(em.unwrap(Session.class).getStatistics().getEntityKeys().stream()
+				.noneMatch(k -> Message.class.getName().equals(k.getEntityName())));
+	}
+
+	@Test
+	void findMyBudget() {
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "20");
+
+		// First call loads the caches and creates the read cursor
+		resource.findMy(uriInfo);
+
+		// Messages and total count, then the read cursor
+		Assertions.assertEquals(8, budget.assertAtMost(4, () -> resource.findMy(uriInfo)).getData().size());
+
+		// Keyset pagination: no total count
+		uriInfo.getQueryParameters().putSingle(MessageResource.PARAM_BEFORE, "");
+		budget.assertAtMost(3, () -> resource.findMy(uriInfo));
+	}
+
+	@Test
+	void countUnreadBudget() {
+		resource.countUnread();
+		budget.assertAtMost(0, () -> resource.countUnread());
+	}
+
 	@Test
 	void findMyUser() {
 		initSpringSecurityContext("user1");
@@ -548,6 +1043,137 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(0, resource.countUnread());
 	}
 
+	@Test
+	void findMyCursorFirstAccess() {
+		initSpringSecurityContext("any");
+		Assertions.assertNull(messageReadRepository.findCursor("any"));
+
+		// The cursor is created even without message
+		Assertions.assertEquals(0, resource.findMy(newUriInfo()).getData().size());
+		Assertions.assertEquals(0, messageReadRepository.findCursor("any"));
+	}
+
+	@Test
+	void cursorNotBackward() {
+		cursors.advance("user1", 5);
+		cursors.advance("user1", 3);
+		Assertions.assertEquals(5, messageReadRepository.findCursor("user1"));
+		cursors.advance("user1", 7);
+		Assertions.assertEquals(7, cursors.get("user1"));
+	}
+
+	@Test
+	void cursorCreatedConcurrently() {
+		// Created by another request after the lookup
+		messageReadRepository.create("user1", 5);
+		cursors.create("user1", 7);
+		Assertions.assertEquals(7, messageReadRepository.findCursor("user1"));
+		cursors.create("user1", 3);
+		Assertions.assertEquals(7, messageReadRepository.findCursor("user1"));
+	}
+
+	@Test
+	void cursorWriteBehind() {
+		final var cursors = new MessageReadCursors();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(cursors);
+		cursors.configuration = mock(ConfigurationResource.class);
+		when(cursors.configuration.get(MessageReadCursors.CONF_WRITE_BEHIND, 0)).thenReturn(3600);
+		cursors.afterPropertiesSet();
+		try {
+			Assertions.assertNull(cursors.get("user1"));
+			cursors.advance("user1", 5);
+			cursors.advance("user1", 3);
+
+			// Coalesced in memory, not yet written
+			Assertions.assertEquals(5, cursors.get("user1"));
+			Assertions.assertNull(messageReadRepository.findCursor("user1"));
+
+			cursors.flush();
+			Assertions.assertEquals(5, messageReadRepository.findCursor("user1"));
+			cursors.advance("user1", 7);
+			cursors.flush();
+			em.clear();
+			Assertions.assertEquals(7, messageReadRepository.findCursor("user1"));
+		} finally {
+			cursors.destroy();
+		}
+	}
+
+	private MessageRetention newRetention(final int days, final int perTarget) {
+		final var retention = new MessageRetention();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(retention);
+		retention.configuration = mock(ConfigurationResource.class);
+		when(retention.configuration.get(MessageRetention.CONF_DAYS, 0)).thenReturn(days);
+		when(retention.configuration.get(MessageRetention.CONF_PER_TARGET, 0)).thenReturn(perTarget);
+		return retention;
+	}
+
+	@Test
+	void archivePerTarget() {
+		Assertions.assertEquals(7, newRetention(0, 1).archive());
+		em.flush();
+		em.clear();
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+		Assertions.assertEquals(1, resource.findMy(uriInfo).getData().size());
+		final var archived = resource.findArchive(uriInfo).getData();
+		Assertions.assertEquals(7, archived.size());
+		Assertions.assertEquals("junit", archived.getFirst().getTarget());
+		Assertions.assertFalse(archived.getFirst().isUnread());
+
+		// Nothing more to archive
+		Assertions.assertEquals(0, newRetention(0, 1).archive());
+	}
+
+	@Test
+	void archiveByAge() {
+		final var message = repository.findAll().getFirst();
+		em.createQuery("UPDATE Message SET createdDate = :date").setParameter("date", new Date()).executeUpdate();
+		em.createQuery("UPDATE Message SET createdDate = :date WHERE id = :id")
+				.setParameter("date", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10))).setParameter("id", message.getId())
+				.executeUpdate();
+		final var count = repository.count();
+		Assertions.assertEquals(1, newRetention(5, 0).archive());
+		Assertions.assertEquals(count - 1, repository.count());
+		Assertions.assertFalse(repository.existsById(message.getId()));
+	}
+
+	@Test
+	void archiveNone() {
+		Assertions.assertEquals(0, newRetention(0, 0).archive());
+	}
+
+	@Test
+	void findMyResolveTargetsOnce() {
+		final var resource = mockCompany();
+		final var company = new ContainerWithScopeVo();
+		company.setId("ligoj");
+		when(resource.companyResource.findByName("ligoj")).thenReturn(company);
+		resource.groupResource = mock(GroupResource.class);
+		final var group = new ContainerWithScopeVo();
+		group.setId("ligoj-jupiter");
+		when(resource.groupResource.findByName("ligoj-jupiter")).thenReturn(group);
+
+		// Second message to the same group
+		final var message = new Message();
+		message.setTarget("ligoj-jupiter");
+		message.setTargetType(MessageTargetType.GROUP);
+		message.setValue("Message2bis");
+		em.persist(message);
+		em.flush();
+
+		initSpringSecurityContext("admin-test");
+		final var uriInfo = newUriInfo();
+		uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "100");
+		final var messages = resource.findMy(uriInfo).getData();
+		Assertions.assertEquals(7, messages.size());
+		Assertions.assertEquals(2, messages.stream().filter(m -> m.getGroup() == group).count());
+
+		// One lookup by distinct target
+		verify(resource.groupResource, times(1)).findByName("ligoj-jupiter");
+		verify(resource.companyResource, times(1)).findByName("ligoj");
+	}
+
 	/**
 	 * No message have been read
 	 */
@@ -670,6 +1296,48 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(2, resource.audience(MessageTargetType.NODE, "service:scm"));
 	}
 
+	@Test
+	void audienceNodeCreated() {
+		// Nodes created after the build of the node ancestors: the reads do not complete them
+		nodeAncestorRepository.deleteAllInBatch();
+		Assertions.assertEquals(0, resource.audience(MessageTargetType.NODE, "service:build:jenkins"));
+		Assertions.assertEquals(0, nodeAncestorRepository.count());
+
+		// Completed on write
+		audienceCache.evictAll();
+		final var message = new Message();
+		message.setTarget("service:build:jenkins");
+		message.setTargetType(MessageTargetType.NODE);
+		message.setValue("msg");
+		resource.create(message);
+		Assertions.assertTrue(nodeAncestorRepository.existsById(new MessageNodeAncestorId("service:build:jenkins:bpr", "service")));
+		Assertions.assertEquals(2, resource.audience(MessageTargetType.NODE, "service:build:jenkins"));
+
+		// Idempotent
+		nodeAncestors.add("service:build:jenkins");
+		Assertions.assertEquals(2, resource.audience(MessageTargetType.NODE, "service:build:jenkins"));
+	}
+
+	@Test
+	void audienceSubscriptionChanged() {
+		Assertions.assertEquals(2, resource.audience(MessageTargetType.NODE, "service:build:jenkins"));
+		Assertions.assertEquals(2, audienceCache.get(MessageTargetType.NODE, "service:build:jenkins", () -> 0));
+
+		// A committed change of a subscription evicts the counts
+		membershipListener.changed(new Subscription());
+		membershipListener.run();
+		Assertions.assertEquals(0, audienceCache.get(MessageTargetType.NODE, "service:build:jenkins", () -> 0));
+	}
+
+	@Test
+	void refreshNodeAncestors() {
+		resource.refresh(null);
+		Assertions.assertTrue(nodeAncestorRepository.existsById(new MessageNodeAncestorId("service:build:jenkins:bpr", "service")));
+		Assertions.assertTrue(nodeAncestorRepository.existsById(new MessageNodeAncestorId("service:build:jenkins:bpr", "service:build:jenkins")));
+		Assertions.assertTrue(nodeAncestorRepository.existsById(new MessageNodeAncestorId("service:build:jenkins", "service:build:jenkins")));
+		Assertions.assertFalse(nodeAncestorRepository.existsById(new MessageNodeAncestorId("service:build:jenkins", "service:build:jenkins:bpr")));
+	}
+
 	@Test
 	void audienceNodeRight() {
 		initSpringSecurityContext("any");
@@ -689,6 +1357,94 @@ class MessageResourceTest extends AbstractAppTest {
 		Assertions.assertEquals(3, resource.countUnread());
 	}
 
+	@Test
+	void countUnreadNoWait() {
+		initSpringSecurityContext("admin-test");
+		prepareUnreadPosition();
+		final var response = mock(AsyncResponse.class);
+		resource.countUnread(null, 10, response);
+		verify(response).resume(3);
+	}
+
+	@Test
+	void countUnreadSinceNew() {
+		initSpringSecurityContext("admin-test");
+		prepareUnreadPosition();
+		final var response = mock(AsyncResponse.class);
+		resource.countUnread(0, 10, response);
+		verify(response).resume(3);
+		verify(response, never()).setTimeout(anyLong(), any());
+	}
+
+	@Test
+	void countUnreadWait() {
+		initSpringSecurityContext("admin-test");
+		prepareUnreadPosition();
+		final var response = mock(AsyncResponse.class);
+		final var waiting = notifier.getWaiting();
+		final var last = em.createQuery("SELECT MAX(id) FROM Message", Integer.class).getSingleResult();
+		resource.countUnread(last, 1000, response);
+
+		// No newer message, the response is suspended
+		verify(response).setTimeout(MessageResource.MAX_WAIT, TimeUnit.SECONDS);
+		verify(response, never()).resume(any());
+		Assertions.assertEquals(waiting + 1, notifier.getWaiting());
+
+		// The timeout completes the response with the current counter
+		final var handler = ArgumentCaptor.forClass(TimeoutHandler.class);
+		verify(response).setTimeoutHandler(handler.capture());
+		handler.getValue().handleTimeout(response);
+		verify(response).resume(3);
+		Assertions.assertEquals(waiting, notifier.getWaiting());
+	}
+
+	@Test
+	void countUnreadCached() {
+		initSpringSecurityContext("admin-test");
+		prepareUnreadPosition();
+		Assertions.assertEquals(3, resource.countUnread());
+
+		// Cursor moved outside the resource, the counter is served from the cache
+		em.createQuery("UPDATE MessageRead SET message = :message WHERE id = :user").setParameter("message", Integer.MAX_VALUE)
+				.setParameter("user", "admin-test").executeUpdate();
+		Assertions.assertEquals(3, resource.countUnread());
+
+		unreadCache.evict(Collections.singleton("admin-test"));
+		Assertions.assertEquals(0, resource.countUnread());
+	}
+
+	@Test
+	void stream() {
+		initSpringSecurityContext("admin-test");
+		prepareUnreadPosition();
+		final var sink = mock(SseEventSink.class);
+		doReturn(CompletableFuture.completedFuture(null)).when(sink).send(any());
+		final var connected = notifier.getConnected();
+		resource.stream(sink, mock(Sse.class, RETURNS_DEEP_STUBS), null);
+		Assertions.assertEquals(connected + 1, notifier.getConnected());
+
+		// Only the unread counter is sent
+		verify(sink, times(1)).send(any());
+
+		// Closed sinks are released by the heartbeat
+		when(sink.isClosed()).thenReturn(true);
+		notifier.heartbeat();
+		Assertions.assertEquals(connected, notifier.getConnected());
+	}
+
+	@Test
+	void streamResume() {
+		initSpringSecurityContext("admin-test");
+		final var sink = mock(SseEventSink.class);
+		doReturn(CompletableFuture.completedFuture(null)).when(sink).send(any());
+		resource.stream(sink, mock(Sse.class, RETURNS_DEEP_STUBS), "0");
+
+		// Missed messages and unread counter are sent
+		verify(sink, times(2)).send(any());
+		when(sink.isClosed()).thenReturn(true);
+		notifier.heartbeat();
+	}
+
 	private void prepareUnreadPosition() {
 		// All messages are read until the message from 2016/08/15 that targets
 		// a project
@@ -705,12 +1461,12 @@ class MessageResourceTest extends AbstractAppTest {
 		messageRead.setMessage(em.createQuery("SELECT id FROM Message WHERE targetType= :type", Integer.class)
 				.setParameter("type", MessageTargetType.PROJECT).getSingleResult() + 2);
 		em.persist(messageRead);
-		Assertions.assertEquals(0, repository.countUnread("admin-test"));
+		Assertions.assertEquals(0, repository.countSince("admin-test", membershipCache.get("admin-test"), messageRead.getMessage()));
 		message.setValue("msg");
 		final int id = resource.create(message);
 		Assertions.assertTrue(id > 0);
 		Assertions.assertEquals("msg", repository.findOne(id).getValue());
-		Assertions.assertEquals(1, repository.countUnread("admin-test"));
+		Assertions.assertEquals(1, repository.countSince("admin-test", membershipCache.get("admin-test"), messageRead.getMessage()));
 	}
 
 	@Test
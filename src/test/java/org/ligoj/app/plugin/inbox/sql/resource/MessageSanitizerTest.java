@@ -0,0 +1,43 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link MessageSanitizer} test cases.
+ */
+class MessageSanitizerTest {
+
+	/**
+	 * The previous implementation, the reference of the accepted values.
+	 */
+	private static final Pattern XSS = Pattern.compile("(<\\s*script|(src|href)\\s*=\\s*['\"](//|[^'\"]+:))");
+
+	private static final String[] ACCEPTED = { "msg", "new", "Message2bis", "msg <i class=\"fas fa-smile\"></i>",
+			"<img src='http //google'>", "", "<", "src", "href=", "src=''", "src=':'", "src=\"a\":", "href = 'page.html'",
+			"<scrip>", "< Script>", "SRC='http://google'", "description: src is here", "href='a'b:c'" };
+
+	private static final String[] REJECTED = { "<script>alert()</script>", "<a href='//google'>alert()</a>",
+			"<img src='http://google'>", "< script>", "<\n\tscript", "src\n=\n\"javascript:alert()\"", "xsrc='a:'",
+			"href=\"::\"", "<a href='mailto:me'>", "text then <script" };
+
+	private final MessageSanitizer sanitizer = new MessageSanitizer();
+
+	@Test
+	void isSafe() {
+		for (final var value : ACCEPTED) {
+			Assertions.assertTrue(sanitizer.isSafe(value), value);
+			Assertions.assertFalse(XSS.matcher(value).find(), value);
+		}
+	}
+
+	@Test
+	void isSafeRejected() {
+		for (final var value : REJECTED) {
+			Assertions.assertFalse(sanitizer.isSafe(value), value);
+			Assertions.assertTrue(XSS.matcher(value).find(), value);
+		}
+	}
+}
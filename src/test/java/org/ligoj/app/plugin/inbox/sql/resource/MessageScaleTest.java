@@ -0,0 +1,137 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import jakarta.transaction.Transactional;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.ligoj.app.AbstractAppTest;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.bootstrap.core.json.datatable.DataTableAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * Latency harness of the inbox endpoints against a generated dataset. Records the p50/p99/max latencies and the SQL
+ * statements per call, after some warmup calls. A p99 needs at least {@value #MIN_ITERATIONS} measured calls, otherwise
+ * it is only the maximum. Disabled unless a scale is given, for sample:
+ * <code>mvn test -Dtest=MessageScaleTest -Dinbox.scale=0.1 -Dinbox.iterations=1000 -Dinbox.warmup=100</code>
+ *
+ * @see InboxDatasetGenerator
+ */
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(locations = "classpath:/META-INF/spring/application-context-test.xml")
+@Rollback
+@Transactional
+@EnabledIfSystemProperty(named = "inbox.scale", matches = "[0-9.]+")
+class MessageScaleTest extends AbstractAppTest {
+
+	private static final Logger log = LoggerFactory.getLogger(MessageScaleTest.class);
+
+	/**
+	 * Minimal amount of measured calls, so the p99 is not the maximum.
+	 */
+	private static final int MIN_ITERATIONS = 200;
+
+	@Autowired
+	private MessageResource resource;
+
+	@Autowired
+	private MessageUnreadCache unreadCache;
+
+	@Autowired
+	private MessageMembershipCache membershipCache;
+
+	@Autowired
+	private MessageAudienceCache audienceCache;
+
+	private InboxDatasetGenerator generator;
+
+	private final Random random = new Random(42);
+
+	@BeforeEach
+	void prepare() {
+		generator = new InboxDatasetGenerator(em, Double.parseDouble(System.getProperty("inbox.scale")));
+		final var start = System.currentTimeMillis();
+		generator.generate();
+		log.info("Generated {} messages, {} users, {} groups, {} nodes, {} projects in {}ms", generator.messageCount,
+				generator.userCount, generator.groupCount, generator.nodeCount, generator.projectCount,
+				System.currentTimeMillis() - start);
+	}
+
+	@Test
+	void latency() {
+		final var iterations = Integer.getInteger("inbox.iterations", 1000);
+		Assertions.assertTrue(iterations >= MIN_ITERATIONS, () -> "At least " + MIN_ITERATIONS + " iterations are needed for a p99");
+		measure("findMy", iterations, u -> {
+			final var uriInfo = newUriInfo();
+			uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "20");
+			resource.findMy(uriInfo);
+		});
+		measure("findAll", iterations, u -> {
+			final var uriInfo = newUriInfo();
+			uriInfo.getQueryParameters().putSingle(DataTableAttributes.PAGE_LENGTH, "20");
+			resource.findAll(uriInfo);
+		});
+		measure("countUnread", iterations, u -> resource.countUnread());
+		measure("audience", iterations, u -> resource.audience(MessageTargetType.GROUP, "group-" + random.nextInt(generator.groupCount)));
+	}
+
+	/**
+	 * Call an endpoint as random users without cached state, and log the latency percentiles and the SQL statements
+	 * per call. The warmup calls are not measured.
+	 */
+	private void measure(final String name, final int iterations, final Consumer<String> call) {
+		final var statistics = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		for (var i = Integer.getInteger("inbox.warmup", 100); i-- > 0;) {
+			call.accept(reset(statistics));
+		}
+		final var latencies = new long[iterations];
+		var statements = 0L;
+		for (var i = 0; i < iterations; i++) {
+			final var user = reset(statistics);
+			final var start = System.nanoTime();
+			call.accept(user);
+			latencies[i] = System.nanoTime() - start;
+			statements += statistics.getPrepareStatementCount();
+		}
+		Arrays.sort(latencies);
+		log.info("{}: p50={}ms p99={}ms max={}ms statements/call={}", name, percentile(latencies, 0.5) / 1_000_000,
+				percentile(latencies, 0.99) / 1_000_000, latencies[iterations - 1] / 1_000_000, statements / (double) iterations);
+	}
+
+	/**
+	 * Reset the caches and the statistics before a call, and authenticate a random user.
+	 *
+	 * @return The authenticated user.
+	 */
+	private String reset(final Statistics statistics) {
+		final var user = "user-" + random.nextInt(generator.userCount);
+		initSpringSecurityContext(user);
+		unreadCache.evictAll();
+		membershipCache.evictAll();
+		audienceCache.evictAll();
+		statistics.clear();
+		return user;
+	}
+
+	/**
+	 * Return the nearest-rank percentile of the sorted latencies.
+	 */
+	private static long percentile(final long[] latencies, final double rank) {
+		return latencies[Math.max(0, (int) Math.ceil(latencies.length * rank) - 1)];
+	}
+}
@@ -0,0 +1,167 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRepository;
+import org.ligoj.app.plugin.inbox.sql.dao.MessageRow;
+import org.ligoj.app.plugin.inbox.sql.model.Message;
+import org.ligoj.app.plugin.inbox.sql.model.MessageTargetType;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+/**
+ * {@link MessageSearchIndex} test cases.
+ */
+class MessageSearchIndexTest {
+
+	private MessageSearchIndex index;
+
+	private final List<MessageRow> messages = new ArrayList<>();
+
+	@BeforeEach
+	void prepare() {
+		index = new MessageSearchIndex();
+		index.configuration = mock(ConfigurationResource.class);
+		index.repository = mock(MessageRepository.class);
+		when(index.configuration.get(MessageSearchIndex.CONF_ENABLED, "false")).thenReturn("true");
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_CANDIDATES, MessageSearchIndex.DEFAULT_MAX_CANDIDATES)).thenReturn(2);
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_MESSAGES, MessageSearchIndex.DEFAULT_MAX_MESSAGES)).thenReturn(4);
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_AGE, MessageSearchIndex.DEFAULT_MAX_AGE)).thenReturn(300);
+		when(index.repository.findAllRows(ArgumentMatchers.any())).then(i -> {
+			final Pageable page = i.getArgument(0);
+			return new SliceImpl<>(messages.stream().limit(page.getPageSize()).toList(), page, messages.size() > page.getPageSize());
+		});
+		when(index.repository.findLastId()).thenReturn(3);
+		messages.add(newRow(1, MessageTargetType.USER, "junit", "Hello World"));
+		messages.add(newRow(2, MessageTargetType.GROUP, "ligoj-jupiter", "Maintenance tonight"));
+		messages.add(newRow(3, MessageTargetType.USER, "fdaugan", "Hello again"));
+		index.rebuild();
+	}
+
+	@Test
+	void search() {
+		Assertions.assertEquals(Set.of(1, 3), index.search("hello"));
+		Assertions.assertEquals(Set.of(1), index.search("WORLD"));
+		Assertions.assertEquals(Set.of(2), index.search("jupiter"));
+		Assertions.assertEquals(Set.of(2), index.search("GROUP"));
+		Assertions.assertEquals(Set.of(), index.search("unknown"));
+	}
+
+	@Test
+	void searchNotIndexed() {
+		// Too short, wildcards or too many candidates
+		Assertions.assertNull(index.search(null));
+		Assertions.assertNull(index.search("he"));
+		Assertions.assertNull(index.search("hel%"));
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_CANDIDATES, MessageSearchIndex.DEFAULT_MAX_CANDIDATES)).thenReturn(1);
+		Assertions.assertNull(index.search("hello"));
+	}
+
+	@Test
+	void searchDisabled() {
+		when(index.configuration.get(MessageSearchIndex.CONF_ENABLED, "false")).thenReturn("false");
+		Assertions.assertNull(index.search("hello"));
+	}
+
+	@Test
+	void searchNotBuilt() {
+		index = new MessageSearchIndex();
+		index.configuration = mock(ConfigurationResource.class);
+		when(index.configuration.get(MessageSearchIndex.CONF_ENABLED, "false")).thenReturn("true");
+		Assertions.assertNull(index.search("hello"));
+	}
+
+	@Test
+	void index() {
+		Assertions.assertEquals(Set.of(1), index.search("world"));
+
+		// Update and creation are synchronized
+		index.index(newMessage(1, MessageTargetType.USER, "junit", "Goodbye"));
+		index.index(newMessage(4, MessageTargetType.USER, "junit", "Brave new world"));
+		when(index.repository.findLastId()).thenReturn(4);
+		Assertions.assertEquals(Set.of(4), index.search("world"));
+
+		index.remove(4);
+		Assertions.assertEquals(Set.of(), index.search("world"));
+	}
+
+	@Test
+	void indexOversized() {
+		index.index(newMessage(4, MessageTargetType.USER, "junit", "Brave new world"));
+		index.index(newMessage(5, MessageTargetType.USER, "junit", "Brave new world"));
+
+		// The index is dropped, the database evaluates the criteria
+		when(index.repository.findLastId()).thenReturn(5);
+		Assertions.assertNull(index.search("world"));
+	}
+
+	@Test
+	void rebuildOversized() {
+		messages.add(newRow(4, MessageTargetType.USER, "junit", "Brave new world"));
+		messages.add(newRow(5, MessageTargetType.USER, "junit", "Brave new world"));
+		index.rebuild();
+		Assertions.assertNull(index.search("world"));
+	}
+
+	@Test
+	void searchStale() {
+		// A message written by another instance
+		when(index.repository.findLastId()).thenReturn(4);
+		Assertions.assertNull(index.search("world"));
+
+		// Too old
+		when(index.repository.findLastId()).thenReturn(3);
+		Assertions.assertEquals(Set.of(1), index.search("world"));
+		when(index.configuration.get(MessageSearchIndex.CONF_MAX_AGE, MessageSearchIndex.DEFAULT_MAX_AGE)).thenReturn(-1);
+		Assertions.assertNull(index.search("world"));
+	}
+
+	@Test
+	void searchStaleRebuild() throws InterruptedException {
+		index.afterPropertiesSet();
+		try {
+			messages.add(newRow(4, MessageTargetType.USER, "junit", "Brave new world"));
+			when(index.repository.findLastId()).thenReturn(4);
+			Assertions.assertNull(index.search("world"));
+
+			// Rebuilt in background
+			for (var i = 0; i < 100 && index.search("world") == null; i++) {
+				Thread.sleep(10);
+			}
+			Assertions.assertEquals(Set.of(1, 4), index.search("world"));
+		} finally {
+			index.destroy();
+		}
+	}
+
+	@Test
+	void rebuild() {
+		Assertions.assertEquals(Set.of(1), index.search("world"));
+		messages.add(newRow(4, MessageTargetType.USER, "junit", "Brave new world"));
+		index.rebuild();
+		Assertions.assertEquals(Set.of(1, 4), index.search("world"));
+	}
+
+	private MessageRow newRow(final int id, final MessageTargetType type, final String target, final String value) {
+		return new MessageRow(id, value, type, target, "junit", null, null, null);
+	}
+
+	private Message newMessage(final int id, final MessageTargetType type, final String target, final String value) {
+		final var message = new Message();
+		message.setId(id);
+		message.setTargetType(type);
+		message.setTarget(target);
+		message.setValue(value);
+		return message;
+	}
+}
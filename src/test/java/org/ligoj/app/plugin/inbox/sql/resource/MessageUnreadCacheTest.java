@@ -0,0 +1,114 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.ligoj.bootstrap.resource.system.configuration.ConfigurationResource;
+
+/**
+ * {@link MessageUnreadCache} test cases.
+ */
+class MessageUnreadCacheTest {
+
+	private MessageUnreadCache cache;
+
+	@BeforeEach
+	void prepare() {
+		cache = new MessageUnreadCache();
+		cache.configuration = mock(ConfigurationResource.class);
+		when(cache.configuration.get(MessageUnreadCache.CONF_SIZE, MessageUnreadCache.DEFAULT_SIZE)).thenReturn(2);
+		when(cache.configuration.get(MessageUnreadCache.CONF_TTL, MessageUnreadCache.DEFAULT_TTL)).thenReturn(60);
+		cache.afterPropertiesSet();
+	}
+
+	@Test
+	void get() {
+		Assertions.assertEquals(3, cache.get("user1", u -> 3));
+		Assertions.assertEquals(3, cache.get("user1", u -> 0));
+	}
+
+	@Test
+	void increment() {
+		cache.get("user1", u -> 3);
+		cache.increment(List.of("user1", "user2"));
+		Assertions.assertEquals(4, cache.get("user1", u -> 0));
+
+		// Not cached counters are not seeded by an increment
+		Assertions.assertEquals(1, cache.get("user2", u -> 1));
+	}
+
+	@Test
+	void evict() {
+		cache.get("user1", u -> 3);
+		cache.get("user2", u -> 3);
+		cache.evict(List.of("user1"));
+		Assertions.assertEquals(0, cache.get("user1", u -> 0));
+		Assertions.assertEquals(3, cache.get("user2", u -> 0));
+		cache.evictAll();
+		Assertions.assertEquals(0, cache.get("user2", u -> 0));
+	}
+
+	@Test
+	void getChanged() {
+		// Changed while loading: not cached
+		Assertions.assertEquals(3, cache.get("user1", u -> {
+			cache.evict(List.of("user1"));
+			return 3;
+		}));
+		Assertions.assertEquals(0, cache.get("user1", u -> 0));
+	}
+
+	@Test
+	void getOtherChanged() {
+		// Another user changed while loading: still cached
+		Assertions.assertEquals(3, cache.get("user1", u -> {
+			cache.increment(List.of("user2"));
+			cache.evict(List.of("user2"));
+			return 3;
+		}));
+		Assertions.assertEquals(3, cache.get("user1", u -> 0));
+	}
+
+	@Test
+	void getAllChanged() {
+		Assertions.assertEquals(3, cache.get("user1", u -> {
+			cache.evictAll();
+			return 3;
+		}));
+		Assertions.assertEquals(0, cache.get("user1", u -> 0));
+	}
+
+	@Test
+	void getError() {
+		Assertions.assertThrows(IllegalStateException.class, () -> cache.get("user1", u -> {
+			throw new IllegalStateException();
+		}));
+		Assertions.assertEquals(3, cache.get("user1", u -> 3));
+		Assertions.assertEquals(3, cache.get("user1", u -> 0));
+	}
+
+	@Test
+	void getNoTtl() {
+		when(cache.configuration.get(MessageUnreadCache.CONF_TTL, MessageUnreadCache.DEFAULT_TTL)).thenReturn(0);
+		cache.afterPropertiesSet();
+		Assertions.assertEquals(3, cache.get("user1", u -> 3));
+		Assertions.assertEquals(0, cache.get("user1", u -> 0));
+	}
+
+	@Test
+	void evictEldest() {
+		cache.get("user1", u -> 1);
+		cache.get("user2", u -> 2);
+		cache.get("user1", u -> 0);
+		cache.get("user3", u -> 3);
+
+		// "user2" is the least recently used counter
+		Assertions.assertEquals(1, cache.get("user1", u -> 0));
+		Assertions.assertEquals(0, cache.get("user2", u -> 0));
+	}
+}
@@ -0,0 +1,50 @@
+package org.ligoj.app.plugin.inbox.sql.resource;
+
+import java.util.function.Supplier;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+/**
+ * JUnit extension asserting the amount of SQL statements executed by a call, in the transaction of the test. Register
+ * it after the {@link SpringExtension}:
+ *
+ * <pre>
+ * &#64;RegisterExtension
+ * final SqlBudget budget = new SqlBudget();
+ * ...
+ * budget.assertAtMost(4, () -&gt; resource.findMy(uriInfo));
+ * </pre>
+ */
+public class SqlBudget implements BeforeEachCallback {
+
+	private EntityManager em;
+
+	@Override
+	public void beforeEach(final ExtensionContext context) {
+		em = SharedEntityManagerCreator.createSharedEntityManager(SpringExtension.getApplicationContext(context).getBean(EntityManagerFactory.class));
+	}
+
+	/**
+	 * Execute the given call and check the amount of executed statements.
+	 *
+	 * @param <T>  The result type.
+	 * @param max  The maximal amount of statements.
+	 * @param call The call to check.
+	 * @return The result of the call.
+	 */
+	public <T> T assertAtMost(final int max, final Supplier<T> call) {
+		final var counter = MessageStatementCounter.attach(em);
+		final var result = call.get();
+		counter.stop();
+		Assertions.assertTrue(counter.getStatements() <= max,
+				() -> "Expected at most " + max + " statements, but " + counter.getStatements() + " were executed");
+		return result;
+	}
+}
@@ -21,6 +21,7 @@ import NotificationBell from './components/NotificationBell.vue'
 
 const features = {
   findMy: service.findMy,
+  findMyBefore: service.findMyBefore,
   countUnread: service.countUnread,
 }
 
@@ -33,6 +33,8 @@ const service = {
    * naturally drops for the messages just observed — no explicit
    * "mark as read" round-trip needed.
    *
+   * @deprecated The offset mode counts all messages and scans the skipped
+   *   ones on each page; use `findMyBefore` instead.
    * @param {object} options
    * @param {number} [options.rows=20]
    * @param {number} [options.page=1]
@@ -45,13 +47,69 @@ const service = {
       silent ? { silent: true } : undefined)
   },
 
+  /**
+   * Fetch the current user's messages, newest first, updating the read
+   * cursor like `findMy`.
+   *
+   * Uses the keyset mode (`before=`): no total count is computed, and the
+   * response carries a `next` cursor (id of the last returned message, or
+   * nothing when there are no older messages) to pass as `before` for the
+   * next batch — infinite scroll costs the same at any depth.
+   *
+   * @param {object} options
+   * @param {number} [options.rows=20]
+   * @param {number} [options.before] `next` cursor of the previous batch;
+   *   omitted for the newest messages.
+   * @param {object} [options.silent] forwarded to `useApi.get`.
+   */
+  async findMyBefore({ rows = 20, before = '', silent = true } = {}) {
+    const api = useApi()
+    return api.get(`rest/message/my?rows=${rows}&before=${before}`,
+      silent ? { silent: true } : undefined)
+  },
+
   /**
    * Unread-message count for the current user. Cheap enough to poll
    * separately from `findMy` when only the badge needs refreshing.
+   *
+   * With `since` (id of the newest message already seen) and `wait`
+   * (seconds, capped server-side), the request is held until a newer
+   * message of the caller's audience is committed or the wait expires:
+   * a long poll.
    */
-  async countUnread({ silent = true } = {}) {
+  async countUnread({ since, wait = 0, silent = true } = {}) {
     const api = useApi()
-    return api.get('rest/message/count', silent ? { silent: true } : undefined)
+    const query = since == null ? '' : `?since=${since}&wait=${wait}`
+    return api.get(`rest/message/count${query}`, silent ? { silent: true } : undefined)
+  },
+
+  /**
+   * Subscribe to the `/message/stream` server-sent events: a `message`
+   * event (data = message id) when a message of the audience is written,
+   * and a `count` event (data = unread counter) on connection. The server
+   * does not push the counter after a change: the `message` handler pulls
+   * it. The browser reconnects by itself and resumes with the
+   * `Last-Event-ID` header, so a missed change is replayed as a
+   * `message` event.
+   *
+   * Returns the `EventSource` (close it to unsubscribe), or `null` when
+   * the browser has no SSE support — callers then fall back to polling.
+   *
+   * @param {object} handlers
+   * @param {function(number)} [handlers.onMessage]
+   * @param {function(number)} [handlers.onCount]
+   * @param {function(Event)} [handlers.onError] fired when the stream
+   *   is permanently closed (e.g. a proxy refusing SSE).
+   */
+  stream({ onMessage, onCount, onError } = {}) {
+    if (typeof EventSource === 'undefined') return null
+    const source = new EventSource('rest/message/stream', { withCredentials: true })
+    source.addEventListener('message', e => onMessage?.(Number(e.data)))
+    source.addEventListener('count', e => onCount?.(Number(e.data)))
+    source.onerror = (e) => {
+      if (source.readyState === EventSource.CLOSED) onError?.(e)
+    }
+    return source
   },
 
   /**
@@ -59,10 +117,14 @@ const service = {
    * `company|group|project|node|user`. The backend re-runs the visibility
    * + XSS check and returns the new id (or a `ValidationJsonException`
    * payload on failure that `useApi` surfaces as an error toast).
+   *
+   * `validFrom` / `validUntil` (optional timestamps) bound the delivery:
+   * a message with a future `validFrom` is scheduled, and the message is
+   * no more delivered after `validUntil`.
    */
-  async create({ value, targetType, target }) {
+  async create({ value, targetType, target, validFrom, validUntil }) {
     const api = useApi()
-    return api.post('rest/message', { value, targetType, target })
+    return api.post('rest/message', { value, targetType, target, validFrom, validUntil })
   },
 
   /**